@@ -0,0 +1,23 @@
+#!/bin/sh
+# Builds the project, runs the JMH suite and checks it against benchmarks/baseline.json.
+#
+#   benchmarks/run.sh                      full suite
+#   benchmarks/run.sh DecodeBenchmark      any JMH arguments (benchmark regex, -p, -f, ...)
+#
+# Every run is kept as benchmarks/results/<timestamp>-<commit>.json. The first run (or
+# BASELINE=update) becomes the baseline; commit baseline.json when you accept new numbers.
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -B -q -DskipTests package
+
+mkdir -p benchmarks/results
+result="benchmarks/results/$(date +%Y%m%d-%H%M%S)-$(git rev-parse --short HEAD 2>/dev/null || echo local).json"
+java -jar benchmarks/target/benchmarks.jar -rf json -rff "$result" "$@"
+
+if [ ! -f benchmarks/baseline.json ] || [ "$BASELINE" = "update" ]; then
+    cp "$result" benchmarks/baseline.json
+    echo "Saved $result as benchmarks/baseline.json"
+else
+    java -cp benchmarks/target/benchmarks.jar bench.CompareResults benchmarks/baseline.json "$result" "${THRESHOLD:-10}"
+fi
@@ -0,0 +1,82 @@
+package bench;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HybridBinarizer vs GlobalHistogramBinarizer: the full black matrix (what 2D readers and
+ * TRY_HARDER rotation need) and a complete retail fast-pass decode on top of each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BinarizerBenchmark {
+
+    @Param({"bcNUTELLA.png", "bcCHEERIOS.png"})
+    public String image;
+
+    @Param({"1.0", "2.0"})
+    public double scale;
+
+    private LuminanceSource source;
+    private MultiFormatReader reader;
+
+    @Setup
+    public void setUp() {
+        source = Project.luminance(image, scale);
+        reader = Project.newReader(Project.profile("retail"), false);
+    }
+
+    @Benchmark
+    public BitMatrix hybridMatrix() throws NotFoundException {
+        return new HybridBinarizer(source).getBlackMatrix();
+    }
+
+    @Benchmark
+    public BitMatrix globalHistogramMatrix() throws NotFoundException {
+        return new GlobalHistogramBinarizer(source).getBlackMatrix();
+    }
+
+    @Benchmark
+    public Result hybridDecode() {
+        return decode(new HybridBinarizer(source));
+    }
+
+    @Benchmark
+    public Result globalHistogramDecode() {
+        return decode(new GlobalHistogramBinarizer(source));
+    }
+
+    private Result decode(Binarizer binarizer) {
+        try {
+            return reader.decodeWithState(new BinaryBitmap(binarizer));
+        } catch (NotFoundException e) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files (-rf json) and fails when a benchmark got slower.
+ *
+ * A result counts as a regression when it is worse than the baseline by more than the
+ * threshold AND by more than both runs' error margins combined, so ordinary noise passes.
+ *
+ * Usage:
+ * java -cp benchmarks/target/benchmarks.jar bench.CompareResults baseline.json current.json [thresholdPercent]
+ */
+public final class CompareResults {
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> current = load(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, JsonNode> e : current.entrySet()) {
+            JsonNode before = baseline.get(e.getKey());
+            if (before == null) {
+                System.out.printf("NEW        %s%n", e.getKey());
+                continue;
+            }
+            JsonNode after = e.getValue();
+            double old = score(before);
+            double now = score(after);
+            // Throughput: higher is better; time modes (avgt, sample, ss): lower is better
+            boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+            double worsePercent = (higherIsBetter ? old - now : now - old) / old * 100.0;
+            double noise = error(before) + error(after);
+
+            String verdict = "ok";
+            if (worsePercent > threshold && Math.abs(now - old) > noise) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (-worsePercent > threshold && Math.abs(now - old) > noise) {
+                verdict = "faster";
+            }
+            System.out.printf("%-10s %s  %.3f -> %.3f %s (%+.1f%%)%n", verdict, e.getKey(), old, now,
+                    after.path("primaryMetric").path("scoreUnit").asText(), higherIsBetter ? -worsePercent : worsePercent);
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s) over " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    // benchmark name + params → result
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            JsonNode params = run.path("params");
+            params.fieldNames().forEachRemaining(name ->
+                    key.append(' ').append(name).append('=').append(params.path(name).asText()));
+            results.put(key.toString(), run);
+        }
+        return results;
+    }
+
+    private static double score(JsonNode run) {
+        return run.path("primaryMetric").path("score").asDouble();
+    }
+
+    private static double error(JsonNode run) {
+        double error = run.path("primaryMetric").path("scoreError").asDouble(0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+}
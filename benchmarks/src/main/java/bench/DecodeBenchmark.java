@@ -0,0 +1,84 @@
+package bench;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image → barcode across the decoder's hint profiles and image sizes.
+ *
+ * - fastPass:   restricted formats, no TRY_HARDER (what the app tries first)
+ * - tryHarder:  same formats with TRY_HARDER forced
+ * - appDecode:  BarcodeDecoder.decode as the app calls it (fast pass, escalation, metrics)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"bcNUTELLA.png", "bcCHEERIOS.png"})
+    public String image;
+
+    @Param({"retail", "retail+qr", "everything"})
+    public String profile;
+
+    @Param({"0.5", "1.0", "2.0"})
+    public double scale;
+
+    private LuminanceSource source;
+    private Object decoderProfile;
+    private MultiFormatReader fastReader;
+    private MultiFormatReader tryHarderReader;
+
+    @Setup
+    public void setUp() {
+        source = Project.luminance(image, scale);
+        decoderProfile = Project.profile(profile);
+        fastReader = Project.newReader(decoderProfile, false);
+        tryHarderReader = Project.newReader(decoderProfile, true);
+    }
+
+    @Benchmark
+    public Result fastPass() {
+        return decode(fastReader);
+    }
+
+    @Benchmark
+    public Result tryHarder() {
+        return decode(tryHarderReader);
+    }
+
+    @Benchmark
+    public Result appDecode() {
+        return Project.decode(source, decoderProfile);
+    }
+
+    private Result decode(MultiFormatReader reader) {
+        try {
+            return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+        } catch (NotFoundException e) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package bench;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup response parsing on recorded-shape fixtures (benchmarks/src/main/resources/responses)
+ * and the saved EthicalConsumer search page (zxing/site.html).
+ *
+ * Jackson tree (readTree + get) vs streaming (JsonParser, skipChildren) for OpenFoodFacts and
+ * BarcodeLookup, and the Jsoup parse + selector the live scrape does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private byte[] openFoodFacts;
+    private byte[] barcodeLookup;
+    private byte[] searchPage;
+
+    @Setup
+    public void setUp() {
+        openFoodFacts = Project.resource("/responses/off-3017620422003.json");
+        barcodeLookup = Project.resource("/responses/barcodelookup-3017620422003.json");
+        searchPage = Project.resource("/site.html");
+    }
+
+    // ---------------------------------------------------------
+    // OPENFOODFACTS
+    // ---------------------------------------------------------
+    @Benchmark
+    public void openFoodFactsTree(Blackhole bh) throws IOException {
+        JsonNode product = JSON.readTree(openFoodFacts).get("product");
+        bh.consume(product.path("product_name").asText(null));
+        bh.consume(product.path("brands").asText(null));
+        bh.consume(product.path("categories").asText(null));
+        bh.consume(product.path("labels").asText(null));
+        bh.consume(product.path("ingredients_text").asText(null));
+        bh.consume(product.path("nutriscore_grade").asText(null));
+    }
+
+    @Benchmark
+    public Object openFoodFactsStreaming() {
+        return Project.parseOpenFoodFacts(new ByteArrayInputStream(openFoodFacts));
+    }
+
+    // ---------------------------------------------------------
+    // BARCODELOOKUP
+    // ---------------------------------------------------------
+    @Benchmark
+    public String barcodeLookupTree() throws IOException {
+        JsonNode products = JSON.readTree(barcodeLookup).get("products");
+        JsonNode manufacturer = products.get(0).get("manufacturer");
+        return manufacturer != null ? manufacturer.asText() : null;
+    }
+
+    // First product's "manufacturer", everything else skipped
+    @Benchmark
+    public String barcodeLookupStreaming() throws IOException {
+        try (JsonParser parser = JSON.getFactory().createParser(barcodeLookup)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!"products".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String productField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("manufacturer".equals(productField)) return parser.getValueAsString();
+                    parser.skipChildren();
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------
+    // ETHICALCONSUMER SEARCH PAGE
+    // ---------------------------------------------------------
+    @Benchmark
+    public Document jsoupParse() throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(searchPage), "UTF-8", "https://www.ethicalconsumer.org/");
+    }
+
+    @Benchmark
+    public String jsoupParseAndSelect() throws IOException {
+        Document doc = Jsoup.parse(new ByteArrayInputStream(searchPage), "UTF-8", "https://www.ethicalconsumer.org/");
+        Element topLink = doc.selectFirst(".search-result__title a");
+        return topLink != null ? topLink.attr("href") : null;
+    }
+}
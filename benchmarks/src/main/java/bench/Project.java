@@ -0,0 +1,161 @@
+package bench;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.Result;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Set;
+
+/**
+ * Handles into the scanner classes. They live in the default package, which JMH benchmarks
+ * (and any named package) cannot import, so they are bound once through method handles.
+ * The handles are static final, so the JIT treats the calls like direct ones.
+ */
+final class Project {
+
+    private static final Class<?> DECODER = load("BarcodeDecoder");
+    private static final Class<?> PROFILE = load("BarcodeDecoder$Profile");
+    private static final Class<?> OFF_PRODUCT = load("OpenFoodFactsProduct");
+
+    // BarcodeDecoder.decode(LuminanceSource, Profile): fast pass, TRY_HARDER only if it finds nothing
+    private static final MethodHandle DECODE = find(DECODER, "decode",
+            MethodType.methodType(Result.class, LuminanceSource.class, PROFILE));
+
+    // BarcodeDecoder.newReader(Set<BarcodeFormat>, boolean tryHarder): the app's reader configuration
+    private static final MethodHandle NEW_READER = find(DECODER, "newReader",
+            MethodType.methodType(MultiFormatReader.class, Set.class, boolean.class));
+
+    private static final MethodHandle PROFILE_FROM_NAME = find(PROFILE, "fromName",
+            MethodType.methodType(PROFILE, String.class));
+
+    private static final MethodHandle PROFILE_FORMATS;
+
+    // OpenFoodFactsProduct.parse(InputStream): the app's streaming parser
+    private static final MethodHandle OFF_PARSE = find(OFF_PRODUCT, "parse",
+            MethodType.methodType(OFF_PRODUCT, InputStream.class));
+
+    static {
+        try {
+            PROFILE_FORMATS = MethodHandles.privateLookupIn(PROFILE, MethodHandles.lookup())
+                    .findGetter(PROFILE, "formats", Set.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Project() {
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle find(Class<?> owner, String name, MethodType type) {
+        try {
+            return MethodHandles.privateLookupIn(owner, MethodHandles.lookup())
+                    .findStatic(owner, name, type)
+                    .asType(type.generic());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // DECODER
+    // ---------------------------------------------------------
+    static Object profile(String label) {
+        try {
+            return (Object) PROFILE_FROM_NAME.invokeExact((Object) label);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static Set<?> formats(Object profile) {
+        try {
+            return (Set<?>) PROFILE_FORMATS.invoke(profile);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static MultiFormatReader newReader(Object profile, boolean tryHarder) {
+        try {
+            return (MultiFormatReader) (Object) NEW_READER.invokeExact((Object) formats(profile), (Object) tryHarder);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static Result decode(LuminanceSource source, Object profile) {
+        try {
+            return (Result) (Object) DECODE.invokeExact((Object) source, profile);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // PARSING
+    // ---------------------------------------------------------
+    static Object parseOpenFoodFacts(InputStream body) {
+        try {
+            return (Object) OFF_PARSE.invokeExact((Object) body);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // FIXTURES
+    // ---------------------------------------------------------
+    static byte[] resource(String path) {
+        try (InputStream in = Project.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalArgumentException("Missing benchmark resource " + path);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A sample label from zxing/working/, flattened onto white (the PNGs have alpha) and scaled
+    static BufferedImage label(String name, double scale) {
+        try (InputStream in = Project.class.getResourceAsStream("/working/" + name)) {
+            if (in == null) throw new IllegalArgumentException("Missing sample image " + name);
+            BufferedImage original = ImageIO.read(in);
+            int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(original, 0, 0, width, height, null);
+            g.dispose();
+            return scaled;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static LuminanceSource luminance(String name, double scale) {
+        return new BufferedImageLuminanceSource(label(name, scale));
+    }
+}
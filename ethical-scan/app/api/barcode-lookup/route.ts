@@ -2,6 +2,9 @@ import { NextRequest, NextResponse } from 'next/server';
 
 // Add your BarcodeLookup API key to .env.local:
 // BARCODE_LOOKUP_API_KEY=your_key_here
+//
+// Or point at a running Java ScanServer to share its caches and rate limits:
+// SCAN_SERVER_URL=http://localhost:8080
 
 export async function POST(request: NextRequest) {
   try {
@@ -14,6 +17,21 @@ export async function POST(request: NextRequest) {
       );
     }
 
+    const scanServer = process.env.SCAN_SERVER_URL;
+
+    if (scanServer) {
+      const response = await fetch(`${scanServer}/product/${encodeURIComponent(barcode)}`);
+
+      if (!response.ok) {
+        throw new Error(`ScanServer error: ${response.status}`);
+      }
+
+      const data = await response.json();
+      return NextResponse.json({
+        manufacturer: data.manufacturer?.[0]?.manufacturer ?? null,
+      });
+    }
+
     const apiKey = process.env.BARCODE_LOOKUP_API_KEY;
 
     if (!apiKey) {
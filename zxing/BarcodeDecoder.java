@@ -0,0 +1,319 @@
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Shared, thread-safe image → barcode decoder.
+ *
+ * Hints are set once per reader (MultiFormatReader.setHints) and each thread keeps its own
+ * reader per profile, so a decode allocates no readers or hint maps. A single-result decode
+ * first runs the fast pass of its profile, a multi-barcode decode one TRY_HARDER multi-reader
+ * pass; only when that finds nothing does DecodeRace try the slower strategies (other
+ * binarizer, inverted, rotated, cropped, TRY_HARDER) in parallel. Files and encoded bytes are
+ * read subsampled (ImagePreprocessor) and read again at full resolution only if that fails.
+ */
+public final class BarcodeDecoder {
+
+    // ---------------------------------------------------------
+    // 1. HINT PROFILES
+    // ---------------------------------------------------------
+    public enum Profile {
+        // Product labels. CODE_128 is included because the sample labels in working/ encode their GTIN as Code 128.
+        RETAIL("retail", EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.EAN_8,
+                BarcodeFormat.UPC_A, BarcodeFormat.UPC_E, BarcodeFormat.CODE_128)),
+        RETAIL_QR("retail+qr", EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.EAN_8,
+                BarcodeFormat.UPC_A, BarcodeFormat.UPC_E, BarcodeFormat.CODE_128, BarcodeFormat.QR_CODE)),
+        EVERYTHING("everything", EnumSet.allOf(BarcodeFormat.class));
+
+        public final String label;
+        final Set<BarcodeFormat> formats;
+
+        private final ThreadLocal<MultiFormatReader> fastReader;
+        private final ThreadLocal<MultiFormatReader> tryHarderReader;
+
+        Profile(String label, Set<BarcodeFormat> formats) {
+            this.label = label;
+            this.formats = Collections.unmodifiableSet(formats);
+            this.fastReader = ThreadLocal.withInitial(() -> newReader(formats, false));
+            this.tryHarderReader = ThreadLocal.withInitial(() -> newReader(formats, true));
+        }
+
+        // Accepts the enum name or its label ("retail", "retail+QR", "everything")
+        public static Profile fromName(String name) {
+            String n = name.trim().toLowerCase(Locale.ROOT);
+            for (Profile p : values()) {
+                if (p.label.equals(n) || p.name().toLowerCase(Locale.ROOT).equals(n)) return p;
+            }
+            throw new IllegalArgumentException("Unknown decoder profile: " + name);
+        }
+    }
+
+    // Default profile for the apps; override with -Ddecoder.profile=everything
+    public static final Profile DEFAULT_PROFILE =
+            Profile.fromName(System.getProperty("decoder.profile", Profile.RETAIL_QR.label));
+
+    private BarcodeDecoder() {
+    }
+
+    private static MultiFormatReader newReader(Set<BarcodeFormat> formats, boolean tryHarder) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+        if (tryHarder) hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+
+        MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(hints);
+        return reader;
+    }
+
+    // ---------------------------------------------------------
+    // 2. DECODE
+    // ---------------------------------------------------------
+    // Returns the full ZXing result (text + format), or null if no barcode was found
+    public static Result decode(File file) {
+        return decode(file, DEFAULT_PROFILE);
+    }
+
+    // Files go through ImagePreprocessor (subsampled read, grayscale buffer, ROI crop)
+    public static Result decode(File file, Profile profile) {
+        Result result = null;
+        try {
+            result = ImagePreprocessor.decode(file, profile);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        ScanMetrics.countDecode(result);
+        return result;
+    }
+
+    public static Result decode(BufferedImage image) {
+        return decode(image, DEFAULT_PROFILE);
+    }
+
+    public static Result decode(BufferedImage image, Profile profile) {
+        return decode(new BufferedImageLuminanceSource(image), profile);
+    }
+
+    // Fast pass; if it finds nothing, DecodeRace races the other strategies (TRY_HARDER among them)
+    public static Result decode(LuminanceSource source, Profile profile) {
+        Result result = DecodeRace.decode(source, profile);
+        ScanMetrics.countDecode(result);
+        return result;
+    }
+
+    // Fast pass only, no TRY_HARDER escalation (used for speculative crops and video frames)
+    static Result decodeFast(LuminanceSource source, Profile profile) {
+        ScanMetrics.TimedBinarizer binarizer = new ScanMetrics.TimedBinarizer(new HybridBinarizer(source));
+        long start = System.nanoTime();
+        Result result = decodeWith(profile.fastReader.get(), new BinaryBitmap(binarizer));
+        ScanMetrics.recordDecode(System.nanoTime() - start, binarizer);
+        return result;
+    }
+
+    // One pass over a caller-chosen binarizer (DecodeRace strategies)
+    static Result decodeBitmap(Binarizer binarizer, Profile profile, boolean tryHarder) {
+        ScanMetrics.TimedBinarizer timed = new ScanMetrics.TimedBinarizer(binarizer);
+        MultiFormatReader reader = tryHarder ? profile.tryHarderReader.get() : profile.fastReader.get();
+        long start = System.nanoTime();
+        Result result = decodeWith(reader, new BinaryBitmap(timed));
+        ScanMetrics.recordDecode(System.nanoTime() - start, timed);
+        return result;
+    }
+
+    private static Result decodeWith(MultiFormatReader reader, BinaryBitmap bitmap) {
+        try {
+            return reader.decodeWithState(bitmap);
+        } catch (NotFoundException e) {
+            return null; // no barcode found
+        } finally {
+            reader.reset();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 3. MULTI-BARCODE DECODE (shelves, multi-packs)
+    // ---------------------------------------------------------
+    // Returns every distinct barcode in the image, in detection order (empty list if none)
+    public static List<Result> decodeAll(File file) {
+        return decodeAll(file, DEFAULT_PROFILE);
+    }
+
+    public static List<Result> decodeAll(File file, Profile profile) {
+        return decodeAll(file, profile, null);
+    }
+
+    // onDecoded sees the decoded image before the search starts (see ImagePreprocessor.luminance)
+    public static List<Result> decodeAll(File file, Profile profile, Consumer<BufferedImage> onDecoded) {
+        try {
+            ImagePreprocessor.GrayImage image = ImagePreprocessor.read(file, ImagePreprocessor.MAX_DIMENSION, onDecoded);
+            if (image != null) return decodeAll(image, profile, () -> ImagePreprocessor.read(file, 0));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        ScanMetrics.countDecode(null);
+        return List.of();
+    }
+
+    // Encoded image bytes (PNG, JPEG, ...), e.g. an HTTP upload
+    public static List<Result> decodeAll(byte[] encoded, Profile profile) {
+        return decodeAll(ByteBuffer.wrap(encoded), profile);
+    }
+
+    // Heap, direct or memory-mapped buffer; read in place, not copied
+    public static List<Result> decodeAll(ByteBuffer encoded, Profile profile) {
+        try {
+            ImagePreprocessor.GrayImage image = ImagePreprocessor.read(encoded, ImagePreprocessor.MAX_DIMENSION, null);
+            if (image != null) return decodeAll(image, profile, () -> ImagePreprocessor.read(encoded, 0, null));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        ScanMetrics.countDecode(null);
+        return List.of();
+    }
+
+    // Uses the TRY_HARDER reader directly: the fast pass only samples rows around the centre
+    // of each sub-image, so it routinely misses off-centre symbols on a shelf photo. When that
+    // finds nothing, DecodeRace's strategies (inverted, rotated, low contrast, cropped) get
+    // their turn, for at most one result.
+    public static List<Result> decodeAll(LuminanceSource source, Profile profile) {
+        return counted(search(source, profile));
+    }
+
+    // A read image: the subsampled frame first, then the ROI crop, and full resolution only
+    // when the subsampled image found nothing (as ImagePreprocessor.decode does for one result)
+    private static List<Result> decodeAll(ImagePreprocessor.GrayImage image, Profile profile,
+                                          Callable<ImagePreprocessor.GrayImage> fullResolution) throws Exception {
+        List<Result> results = search(image.source(), profile);
+        if (results.isEmpty() && ImagePreprocessor.ROI_ENABLED) {
+            long start = System.nanoTime();
+            int[] box = ImagePreprocessor.findBarcodeRegion(image);
+            ScanMetrics.record(ScanMetrics.Stage.ROI, System.nanoTime() - start);
+            Result result = box != null ? decodeFast(image.crop(box), profile) : null;
+            if (result != null) results = List.of(result);
+        }
+        if (results.isEmpty() && image.subsampling > 1) {
+            // Fine detail may have been lost by subsampling
+            results = search(fullResolution.call().source(), profile);
+        }
+        return counted(results);
+    }
+
+    private static List<Result> search(LuminanceSource source, Profile profile) {
+        ScanMetrics.TimedBinarizer binarizer = new ScanMetrics.TimedBinarizer(new HybridBinarizer(source));
+        long start = System.nanoTime();
+        List<Result> results = distinct(decodeAllWith(profile.tryHarderReader.get(), new BinaryBitmap(binarizer)));
+        ScanMetrics.recordDecode(System.nanoTime() - start, binarizer);
+        if (!results.isEmpty()) return results;
+
+        Result raced = DecodeRace.decode(source, profile);
+        return raced != null ? List.of(raced) : List.of();
+    }
+
+    private static List<Result> counted(List<Result> results) {
+        if (results.isEmpty()) ScanMetrics.countDecode(null);
+        for (Result result : results) ScanMetrics.countDecode(result);
+        return results;
+    }
+
+    private static List<Result> decodeAllWith(MultiFormatReader reader, BinaryBitmap bitmap) {
+        try {
+            Result[] found = new GenericMultipleBarcodeReader(new PresetReader(reader)).decodeMultiple(bitmap);
+            return List.of(found);
+        } catch (NotFoundException e) {
+            return List.of();
+        } finally {
+            reader.reset();
+        }
+    }
+
+    // GenericMultipleBarcodeReader re-detects the same symbol from overlapping sub-images;
+    // drop a result when one with the same text already sits at (roughly) the same place.
+    static List<Result> distinct(List<Result> results) {
+        List<Result> kept = new ArrayList<>(results.size());
+        for (Result candidate : results) {
+            boolean duplicate = false;
+            for (Result k : kept) {
+                if (k.getText().equals(candidate.getText()) && samePlace(k, candidate)) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) kept.add(candidate);
+        }
+        return kept;
+    }
+
+    private static boolean samePlace(Result a, Result b) {
+        float[] ca = centroid(a.getResultPoints());
+        float[] cb = centroid(b.getResultPoints());
+        if (ca == null || cb == null) return true; // no geometry: text alone decides
+        float dx = ca[0] - cb[0];
+        float dy = ca[1] - cb[1];
+        return dx * dx + dy * dy < 50f * 50f;
+    }
+
+    private static float[] centroid(ResultPoint[] points) {
+        if (points == null || points.length == 0) return null;
+        float x = 0;
+        float y = 0;
+        int n = 0;
+        for (ResultPoint p : points) {
+            if (p == null) continue;
+            x += p.getX();
+            y += p.getY();
+            n++;
+        }
+        return n == 0 ? null : new float[] {x / n, y / n};
+    }
+
+    // Lets GenericMultipleBarcodeReader use a preconfigured reader: MultiFormatReader.decode(image, hints)
+    // would call setHints on every sub-image, so both overloads go through decodeWithState instead.
+    private static final class PresetReader implements Reader {
+        private final MultiFormatReader delegate;
+
+        PresetReader(MultiFormatReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public void reset() {
+            delegate.reset();
+        }
+    }
+}
@@ -1,24 +1,23 @@
 import com.google.zxing.*;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
-import com.google.zxing.common.HybridBinarizer;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.Dimension;
 import java.awt.BorderLayout;
-import java.awt.Image;
+import java.awt.image.BufferedImage;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class BarcodeEthicalScannerApp extends JFrame {
 
@@ -26,8 +25,16 @@ public class BarcodeEthicalScannerApp extends JFrame {
     private JTextArea resultArea;
     private JButton scanButton;
 
-    // ---- TODO: insert your BarcodeLookup API key here ----
-    private static final String BARCODE_LOOKUP_API_KEY = "oxutdjyhjspmaocz1np90n18rn319y";
+    // Lookups are network bound, so they run on their own daemon pool and never on the EDT
+    private static final ExecutorService SCAN_POOL = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "scan-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Scan whose results the result area shows; EDT only
+    private ScanWorker currentScan;
+    private JFileChooser chooser; // EDT only
 
     public BarcodeEthicalScannerApp() {
         super("Barcode Ethical Scanner");
@@ -48,129 +55,40 @@ public class BarcodeEthicalScannerApp extends JFrame {
         setSize(600, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setVisible(true);
+
+        // The first JFileChooser is slow to build (look-and-feel, file system views): do it
+        // while the window sits idle, and keep it so the next scan opens in the same folder
+        SwingUtilities.invokeLater(() -> {
+            if (chooser == null) chooser = new JFileChooser();
+        });
     }
 
     // ---------------------------------------------------------
     // 1. IMAGE → BARCODE DECODER
     // ---------------------------------------------------------
-    private String decodeBarcode(String imagePath) {
-        try {
-            File file = new File(imagePath);
-            var bufferedImage = ImageIO.read(file);
-
-            LuminanceSource source = new BufferedImageLuminanceSource(bufferedImage);
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-
-            Result result = new MultiFormatReader().decode(bitmap);
-            return result.getText();
-
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Every distinct barcode in the image (shelf photos and multi-packs hold several).
+    // onDecoded gets the image read for decoding, so the preview needs no second read.
+    private List<Result> decodeBarcodes(String imagePath, Consumer<BufferedImage> onDecoded) {
+        List<Result> barcodes = new ArrayList<>();
+        List<String> seen = new ArrayList<>();
+        for (Result result : BarcodeDecoder.decodeAll(new File(imagePath), BarcodeDecoder.DEFAULT_PROFILE, onDecoded)) {
+            if (!seen.contains(result.getText())) {
+                seen.add(result.getText());
+                barcodes.add(result);
+            }
         }
-        return null;
+        return barcodes;
     }
 
     // ---------------------------------------------------------
-    // 2. BARCODE → MANUFACTURER (BarcodeLookup API)
+    // 2-4. LOOKUPS (see ProductLookups)
     // ---------------------------------------------------------
     private String searchManufacturerByBarcode(String barcode) {
-        try {
-            String apiUrl = "https://api.barcodelookup.com/v3/products?barcode=" + barcode
-                    + "&formatted=y&key=" + BARCODE_LOOKUP_API_KEY;
-
-            Document jsonDoc = Jsoup.connect(apiUrl)
-                    .ignoreContentType(true)
-                    .userAgent("Mozilla/5.0")
-                    .timeout(10000)
-                    .get();
-
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(jsonDoc.text());
-            JsonNode products = root.get("products");
-
-            if (products != null && products.isArray() && products.size() > 0) {
-                JsonNode product = products.get(0);
-                if (product.has("manufacturer")) {
-                    return product.get("manufacturer").asText();
-                }
-            }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+        return ProductLookups.searchManufacturerByBarcode(barcode);
     }
 
-    // ---------------------------------------------------------
-    // 3. ETHICAL CONSUMER SEARCH → RETURN FIRST RESULT
-    // ---------------------------------------------------------
     private String searchEthicalConsumerTopHit(String brand) {
-        try {
-            // Encode brand properly for URLs
-            String encodedBrand = java.net.URLEncoder.encode(brand, "UTF-8");
-            String searchUrl = "https://www.ethicalconsumer.org/search?keywords=" + encodedBrand;
-            System.out.println(searchUrl);
-    
-            Document doc = Jsoup.connect(searchUrl)
-                    .userAgent("Mozilla/5.0")
-                    .timeout(12000)
-                    .get();
-            System.out.println(doc);
-            // Select the first result reliably
-            Element topLink = doc.selectFirst(".search-result__title a");
-            if (topLink != null) {
-                return topLink.text() + " -> https://www.ethicalconsumer.org" + topLink.attr("href");
-            }
-    
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    
-        return null;
-    }
-    
-
-    // ---------------------------------------------------------
-    // 4. OPENFOODFACTS (EXTRA INFO)
-    // ---------------------------------------------------------
-    private String getOpenFoodFactsInfo(String barcode) {
-        try {
-            String apiUrl = "https://world.openfoodfacts.org/api/v0/product/" + barcode + ".json";
-
-            Document jsonDoc = Jsoup.connect(apiUrl)
-                    .ignoreContentType(true)
-                    .userAgent("Mozilla/5.0")
-                    .timeout(8000)
-                    .get();
-
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(jsonDoc.text());
-
-            if (!root.has("product")) return "No OpenFoodFacts data.";
-
-            JsonNode product = root.get("product");
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("--- OpenFoodFacts Info ---\n");
-
-            if (product.has("product_name"))
-                sb.append("Product Name: ").append(product.get("product_name").asText()).append("\n");
-
-            if (product.has("brands"))
-                sb.append("Brands: ").append(product.get("brands").asText()).append("\n");
-
-            if (product.has("ingredients_text"))
-                sb.append("Ingredients: ").append(product.get("ingredients_text").asText()).append("\n");
-
-            if (product.has("nutriscore_grade"))
-                sb.append("Nutriscore: ").append(product.get("nutriscore_grade").asText()).append("\n");
-
-            return sb.toString();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return "OpenFoodFacts error.";
+        return ProductLookups.searchEthicalConsumerTopHit(brand);
     }
 
     // ---------------------------------------------------------
@@ -180,54 +98,182 @@ public class BarcodeEthicalScannerApp extends JFrame {
         @Override
         public void actionPerformed(ActionEvent e) {
 
-            JFileChooser chooser = new JFileChooser();
+            if (chooser == null) chooser = new JFileChooser();
             int result = chooser.showOpenDialog(null);
 
             if (result != JFileChooser.APPROVE_OPTION) return;
 
             File file = chooser.getSelectedFile();
 
-            previewLabel.setIcon(new ImageIcon(
-                    new ImageIcon(file.getAbsolutePath())
-                            .getImage()
-                            .getScaledInstance(500, 400, Image.SCALE_SMOOTH)));
+            // Recently scanned images have their preview cached; others get one from the decode read
+            BufferedImage cached = ThumbnailCache.shared().get(file);
+            showPreview(cached);
 
             resultArea.setText("Decoding barcode...\n");
 
-            String barcode = BarcodeEthicalScannerApp.this.decodeBarcode(file.getAbsolutePath());
+            // Late results from the previous scan are dropped
+            if (currentScan != null) currentScan.cancel(true);
+            currentScan = new ScanWorker(file, cached == null);
+            currentScan.execute();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 6. ASYNC LOOKUP PIPELINE → STREAMED RESULTS
+    // ---------------------------------------------------------
+    // Each lookup stage fills in its part of the product's ScanResult and publishes it.
+    // SwingWorker hands everything published since the last EDT turn to one process()
+    // call, so a burst of results costs one text update, and the first one shows up as
+    // soon as the fastest source answers.
+    private class ScanWorker extends SwingWorker<Void, ScanResult> {
+        private final File file;
+        private final boolean needsPreview;
+        private final long start = System.nanoTime();
+        private final long startMillis = System.currentTimeMillis();
+        private final List<ScanResult> results = new CopyOnWriteArrayList<>();
+        private volatile boolean decoded;
+        private volatile String decodeTimings;
+        private String rendered; // EDT only
+
+        ScanWorker(File file, boolean needsPreview) {
+            this.file = file;
+            this.needsPreview = needsPreview;
+        }
 
-            if (barcode == null) {
-                resultArea.append("No barcode detected.\n");
-                return;
+        @Override
+        protected Void doInBackground() throws Exception {
+            // Thumbnail from the decoder's own read, shown before the barcode search starts
+            Consumer<BufferedImage> preview = !needsPreview ? null : decoded -> {
+                BufferedImage thumbnail = ThumbnailCache.shared().put(file, decoded);
+                SwingUtilities.invokeLater(() -> {
+                    if (!isCancelled()) showPreview(thumbnail);
+                });
+            };
+
+            ScanMetrics.Trace trace = new ScanMetrics.Trace();
+            List<Result> barcodes = trace.around(() -> decodeBarcodes(file.getAbsolutePath(), preview));
+            if (ScanMetrics.DEBUG) decodeTimings = trace.format();
+
+            for (Result barcode : barcodes) {
+                results.add(new ScanResult(barcode.getText(), barcode.getBarcodeFormat().toString(), start));
             }
+            decoded = true;
+            if (results.isEmpty()) return null;
+            publish(results.toArray(new ScanResult[0]));
+
+            // One independent lookup pipeline per product; stay alive until all are in
+            CompletableFuture<?>[] pipelines = new CompletableFuture<?>[results.size()];
+            for (int i = 0; i < pipelines.length; i++) pipelines[i] = runLookups(results.get(i));
+            CompletableFuture.allOf(pipelines).get();
+            return null;
+        }
 
-            resultArea.append("Decoded barcode: " + barcode + "\n\n");
+        // OpenFoodFacts and BarcodeLookup run in parallel; EthicalConsumer is chained
+        // on the manufacturer, so wall time is the longest chain, not the sum.
+        private CompletableFuture<Void> runLookups(ScanResult result) {
+            ScanMetrics.Trace trace = new ScanMetrics.Trace();
 
             // 1. OpenFoodFacts
-            resultArea.append(BarcodeEthicalScannerApp.this.getOpenFoodFactsInfo(barcode) + "\n");
-
-            // 2. Manufacturer lookup
-            String manufacturer = BarcodeEthicalScannerApp.this.searchManufacturerByBarcode(barcode);
-            resultArea.append("Manufacturer: " + manufacturer + "\n");
-
-            // 3. Ethical Consumer
-            String ethical = (manufacturer != null)
-                    ? BarcodeEthicalScannerApp.this.searchEthicalConsumerTopHit(manufacturer)
-                    : null;
-
-            if (ethical != null) {
-                resultArea.append("\nEthicalConsumer Top Match: " + ethical + "\n");
-            } else {
-                resultArea.append("\nNo EthicalConsumer results found. Consider searching manually for: "
-                        + manufacturer + " ethical rating.\n");
+            CompletableFuture<Void> openFoodFacts = CompletableFuture
+                    .supplyAsync(() -> trace.around(() -> lookupProduct(result)), SCAN_POOL)
+                    .thenAccept(updated -> publish(updated));
+
+            // 2. Manufacturer lookup -> 3. Ethical Consumer
+            CompletableFuture<Void> ethicalChain = CompletableFuture
+                    .supplyAsync(() -> trace.around(() -> searchManufacturerByBarcode(result.barcode)), SCAN_POOL)
+                    .thenCompose(manufacturer -> {
+                        result.manufacturer(manufacturer);
+                        publish(result);
+                        if (manufacturer == null) return CompletableFuture.completedFuture(null);
+                        return CompletableFuture.supplyAsync(
+                                        () -> trace.around(() -> searchEthicalConsumerTopHit(manufacturer)), SCAN_POOL)
+                                .thenAccept(ethical -> {
+                                    result.ethical(ethical);
+                                    publish(result);
+                                });
+                    });
+
+            return CompletableFuture.allOf(openFoodFacts, ethicalChain).thenRun(() -> {
+                // Queued for the history's next group commit; nothing waits on the disk
+                ScanHistory history = ScanHistory.shared();
+                if (history != null) history.append(result.toScan(startMillis, file.getPath()));
+                if (ScanMetrics.DEBUG) {
+                    result.stageTimings(trace.format());
+                    publish(result);
+                }
+            });
+        }
+
+        @Override
+        protected void process(List<ScanResult> changed) {
+            render();
+        }
+
+        @Override
+        protected void done() {
+            // Runs after any preview posted during the read, so no icon means no readable image
+            if (!isCancelled() && previewLabel.getIcon() == null) previewLabel.setText("No preview available");
+            render();
+        }
+
+        private void render() {
+            if (isCancelled()) return;
+
+            StringBuilder all = new StringBuilder();
+            if (decodeTimings != null) all.append(decodeTimings).append("\n");
+            if (!decoded) {
+                all.append("Decoding barcode...\n");
+            } else if (results.isEmpty()) {
+                all.append("No barcode detected.\n");
+            } else if (results.size() > 1) {
+                all.append("Found ").append(results.size()).append(" products.\n\n");
             }
+            for (ScanResult result : results) {
+                all.append("===== ").append(result.barcode).append(" =====\n");
+                result.render(all);
+                all.append('\n');
+            }
+            String text = all.toString();
+            if (text.equals(rendered)) return; // e.g. done() after the last lookup already showed
+            rendered = text;
+            resultArea.setText(text);
+        }
+    }
+
+    // EDT only; null while the preview is still being made
+    private void showPreview(BufferedImage thumbnail) {
+        previewLabel.setIcon(thumbnail != null ? new ImageIcon(thumbnail) : null);
+        previewLabel.setText(thumbnail != null ? null : "Loading preview...");
+    }
+
+    private ScanResult lookupProduct(ScanResult result) {
+        try {
+            OpenFoodFactsProduct product = ProductLookups.lookupOpenFoodFacts(result.barcode);
+            result.product(product != null ? ScanResult.Status.FOUND : ScanResult.Status.NOT_FOUND, product);
+        } catch (UpstreamGuard.UnavailableException e) {
+            result.product(ScanResult.Status.UNAVAILABLE, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.product(ScanResult.Status.FAILED, null);
         }
+        return result;
     }
 
     // ---------------------------------------------------------
     // MAIN
     // ---------------------------------------------------------
-    public static void main(String[] args) {
-        new BarcodeEthicalScannerApp();
+    public static void main(String[] args) throws IOException {
+        // --serve starts the HTTP API (see ScanServer); any other arguments switch to batch mode
+        if (args.length > 0 && args[0].equals("--serve")) {
+            ScanServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0) {
+            BatchScanner.main(args);
+            return;
+        }
+        // Decoder, parsers and caches warm up while the user picks a file
+        StartupWarmup.startInBackground();
+        SwingUtilities.invokeLater(BarcodeEthicalScannerApp::new);
     }
 }
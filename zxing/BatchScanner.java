@@ -0,0 +1,275 @@
+/**
+ * BatchScanner.java
+ *
+ * Headless batch mode: decodes every image in a directory (or matching a glob)
+ * on a bounded worker pool and streams one result row per image to stdout.
+ *
+ * Usage:
+ * java -cp "..." BatchScanner [--csv | --jsonl] [--lookup] [--history] [--threads N] <dir | glob>...
+ *
+ *   --jsonl     one JSON object per line (default)
+ *   --csv       comma-separated rows with a header line
+ *   --lookup    also resolve manufacturer + EthicalConsumer hit (network)
+ *   --history   also record every decoded barcode in the scan history (see ScanHistory)
+ *   --threads   decode workers (default: number of cores)
+ *
+ * Example:
+ * java -cp ".:core-3.5.2.jar:javase-3.5.2.jar:jackson-core-2.15.2.jar:jackson-annotations-2.15.2.jar:jackson-databind-2.15.2.jar:jsoup-1.16.1.jar" BatchScanner --csv "working/*.png"
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.zxing.Result;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BatchScanner {
+
+    private static final String[] COLUMNS = {
+            "path", "barcode", "format", "manufacturer", "ethical", "decodeMs", "lookupMs"
+    };
+
+    private final boolean csv;
+    private final boolean lookup;
+    private final ExecutorService decodePool;
+    private final ExecutorService lookupPool;
+    private final PrintStream out;
+    private final ScanHistory history; // null = don't record
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public BatchScanner(boolean csv, boolean lookup, int threads, PrintStream out, ScanHistory history) {
+        this.csv = csv;
+        this.lookup = lookup;
+        this.out = out;
+        this.history = history;
+
+        // Decoding is CPU bound: one worker per core, and a bounded queue so a
+        // directory of thousands of images does not queue thousands of tasks.
+        // CallerRunsPolicy makes the submitting thread help out when the queue is full.
+        this.decodePool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), daemonFactory("batch-decode"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // Lookups are I/O bound and must not steal decode workers
+        this.lookupPool = lookup ? Executors.newFixedThreadPool(threads * 4, daemonFactory("batch-lookup")) : null;
+    }
+
+    // ---------------------------------------------------------
+    // 1. INPUT EXPANSION (directory or glob)
+    // ---------------------------------------------------------
+    // File suffixes an installed ImageIO reader handles (png, jpg, jpeg, gif, bmp, ...)
+    private static final Set<String> IMAGE_SUFFIXES = Arrays.stream(ImageIO.getReaderFileSuffixes())
+            .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+
+    // Directories and globs keep only images, so labels.csv, .DS_Store and the like produce no
+    // rows; a file named explicitly is always scanned
+    static List<Path> expand(String arg) throws IOException {
+        Path path = Paths.get(arg);
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                return files.filter(Files::isRegularFile).filter(BatchScanner::isImage).sorted().collect(Collectors.toList());
+            }
+        }
+        if (Files.isRegularFile(path)) {
+            return List.of(path);
+        }
+
+        // Walk from the longest prefix without glob characters and match the rest
+        int firstGlob = indexOfGlobChar(arg);
+        if (firstGlob < 0) return List.of();
+        int slash = arg.lastIndexOf('/', firstGlob);
+        Path base = slash < 0 ? Paths.get(".") : Paths.get(arg.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(BatchScanner::isImage)
+                    .filter(p -> matcher.matches(slash < 0 ? base.relativize(p) : p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && IMAGE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static int indexOfGlobChar(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return i;
+        }
+        return -1;
+    }
+
+    // ---------------------------------------------------------
+    // 2. SCAN ONE IMAGE
+    // ---------------------------------------------------------
+    private CompletableFuture<Void> submit(Path image) {
+        return CompletableFuture
+                .supplyAsync(() -> decode(image), decodePool)
+                .thenCompose(row -> lookup && row.get("barcode") != null
+                        ? CompletableFuture.supplyAsync(() -> lookup(row), lookupPool)
+                        : CompletableFuture.completedFuture(row))
+                .thenAccept(row -> {
+                    record(row);
+                    emit(row);
+                });
+    }
+
+    private Map<String, Object> decode(Path image) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        Result result = BarcodeDecoder.decode(image.toFile());
+
+        row.put("path", image.toString());
+        row.put("barcode", result != null ? result.getText() : null);
+        row.put("format", result != null ? result.getBarcodeFormat().toString() : null);
+        row.put("manufacturer", null);
+        row.put("ethical", null);
+        row.put("decodeMs", millisSince(start));
+        row.put("lookupMs", null);
+        return row;
+    }
+
+    // Queued, not waited for: group commit batches the rows of many images into one fsync
+    private void record(Map<String, Object> row) {
+        if (history == null || row.get("barcode") == null) return;
+        history.append(new ScanHistory.Scan(System.currentTimeMillis(), (String) row.get("barcode"),
+                (String) row.get("format"), null, null, null, (String) row.get("manufacturer"),
+                (String) row.get("ethical"), (String) row.get("path")));
+    }
+
+    private Map<String, Object> lookup(Map<String, Object> row) {
+        long start = System.nanoTime();
+        String manufacturer = ProductLookups.searchManufacturerByBarcode((String) row.get("barcode"));
+        row.put("manufacturer", manufacturer);
+        if (manufacturer != null) {
+            row.put("ethical", ProductLookups.searchEthicalConsumerTopHit(manufacturer));
+        }
+        row.put("lookupMs", millisSince(start));
+        return row;
+    }
+
+    // ---------------------------------------------------------
+    // 3. OUTPUT (JSON Lines / CSV), streamed as rows complete
+    // ---------------------------------------------------------
+    private void emit(Map<String, Object> row) {
+        String line;
+        if (csv) {
+            line = row.values().stream().map(BatchScanner::csvField).collect(Collectors.joining(","));
+        } else {
+            try {
+                line = mapper.writeValueAsString(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    private static String csvField(Object value) {
+        if (value == null) return "";
+        String s = value.toString();
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static double millisSince(long startNanos) {
+        return Math.round((System.nanoTime() - startNanos) / 10_000.0) / 100.0;
+    }
+
+    public void run(List<Path> images) {
+        if (csv) out.println(String.join(",", COLUMNS));
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>(images.size());
+        for (Path image : images) {
+            pending.add(submit(image));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+
+        decodePool.shutdown();
+        if (lookupPool != null) lookupPool.shutdown();
+        if (history != null) history.flush();
+        out.flush();
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        boolean csv = false;
+        boolean lookup = false;
+        boolean record = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> images = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase(Locale.ROOT)) {
+                    case "--csv": csv = true; break;
+                    case "--jsonl": csv = false; break;
+                    case "--lookup": lookup = true; break;
+                    case "--history": record = true; break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    default: images.addAll(expand(args[i]));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        if (images.isEmpty()) {
+            System.err.println("Usage: BatchScanner [--csv | --jsonl] [--lookup] [--history] [--threads N] <dir | glob>...");
+            System.exit(1);
+        }
+
+        ScanHistory history = record ? ScanHistory.shared() : null;
+        if (record && history == null) {
+            System.err.println("Error: scan history unavailable: " + ScanHistory.defaultDir());
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        new BatchScanner(csv, lookup, Math.max(1, threads), System.out, history).run(images);
+        System.err.printf(Locale.ROOT, "Scanned %d images in %.1f ms%n", images.size(), (System.nanoTime() - start) / 1e6);
+    }
+}
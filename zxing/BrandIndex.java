@@ -0,0 +1,294 @@
+/**
+ * BrandIndex.java
+ *
+ * In-process manufacturer → EthicalConsumer match, so most scans never scrape the site.
+ *
+ * - Names are normalised ("Ferrero S.p.A." → "ferrero"): lower case, accents and punctuation
+ *   stripped, legal-form words (spa, inc, ltd, gmbh, ...) dropped.
+ * - A trigram inverted index scores candidates by Dice similarity; an exact normalised match
+ *   short-circuits the scoring.
+ * - Seeded from saved EthicalConsumer search pages (like site.html), and every live scrape is
+ *   written back, so each brand is scraped at most once.
+ *
+ * Usage:
+ * java -cp "..." BrandIndex seed site.html [more.html ...]
+ * java -cp "..." BrandIndex match "Ferrero S.p.A."
+ *
+ * Index file: ~/.barcode-scanner/brand-index.tsv (override with -DbrandIndex.file=...)
+ */
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+public final class BrandIndex {
+
+    private static final double MIN_SIMILARITY = 0.6;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+
+    // Legal forms and filler words that say nothing about which brand it is
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "spa", "srl", "inc", "incorporated", "ltd", "limited", "llc", "plc", "gmbh", "ag", "sa", "sas",
+            "nv", "bv", "co", "corp", "corporation", "company", "group", "holding", "holdings",
+            "international", "the", "and"));
+
+    static final class Entry {
+        final String brand; // normalised
+        final String hit;   // "Title -> https://www.ethicalconsumer.org/..."
+        final int trigramCount;
+
+        Entry(String brand, String hit, int trigramCount) {
+            this.brand = brand;
+            this.hit = hit;
+            this.trigramCount = trigramCount;
+        }
+    }
+
+    // Growable posting list of entry ids
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    // Per-thread scoring scratch, so a lookup allocates nothing proportional to the index
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[0]);
+    private static final ThreadLocal<Postings> TOUCHED = ThreadLocal.withInitial(Postings::new);
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> exact = new HashMap<>();
+    private final Map<String, Postings> trigrams = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File file;
+
+    private static volatile BrandIndex shared;
+
+    public static BrandIndex shared() {
+        BrandIndex index = shared;
+        if (index == null) {
+            synchronized (BrandIndex.class) {
+                index = shared;
+                if (index == null) {
+                    String path = System.getProperty("brandIndex.file", System.getProperty("user.home")
+                            + File.separator + ".barcode-scanner" + File.separator + "brand-index.tsv");
+                    shared = index = new BrandIndex(new File(path));
+                }
+            }
+        }
+        return index;
+    }
+
+    public BrandIndex(File file) {
+        this.file = file;
+        if (file != null && file.isFile()) {
+            try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) addInMemory(line.substring(0, tab), line.substring(tab + 1));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 1. NORMALISATION + TRIGRAMS
+    // ---------------------------------------------------------
+    public static String normalize(String name) {
+        if (name == null) return "";
+        String s = Normalizer.normalize(name.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        s = MARKS.matcher(s).replaceAll("");
+        s = s.replace(".", "").replace("'", ""); // "S.p.A." → "spa", "Kellogg's" → "kelloggs"
+        StringBuilder sb = new StringBuilder();
+        for (String token : NON_ALNUM.split(s)) {
+            if (token.isEmpty() || STOP_WORDS.contains(token)) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    static Set<String> trigramsOf(String normalized) {
+        String padded = "  " + normalized + " ";
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    // ---------------------------------------------------------
+    // 2. MATCH
+    // ---------------------------------------------------------
+    // Best EthicalConsumer hit for a manufacturer, or null when nothing is similar enough
+    public String match(String manufacturer) {
+        String query = normalize(manufacturer);
+        if (query.isEmpty()) return null;
+
+        lock.readLock().lock();
+        try {
+            Integer exactId = exact.get(query);
+            if (exactId != null) return entries.get(exactId).hit;
+
+            Set<String> grams = trigramsOf(query);
+            int[] counts = scratch(COUNTS, entries.size());
+            Postings touched = TOUCHED.get();
+            touched.size = 0;
+            for (String gram : grams) {
+                Postings postings = trigrams.get(gram);
+                if (postings == null) continue;
+                for (int i = 0; i < postings.size; i++) {
+                    int id = postings.ids[i];
+                    if (counts[id]++ == 0) touched.add(id);
+                }
+            }
+
+            // Only entries sharing at least one trigram are scored; counts is zeroed on the way out
+            double best = 0;
+            int bestId = -1;
+            for (int i = 0; i < touched.size; i++) {
+                int id = touched.ids[i];
+                double dice = 2.0 * counts[id] / (grams.size() + entries.get(id).trigramCount);
+                counts[id] = 0;
+                if (dice > best) {
+                    best = dice;
+                    bestId = id;
+                }
+            }
+            return best >= MIN_SIMILARITY ? entries.get(bestId).hit : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int[] scratch(ThreadLocal<int[]> holder, int size) {
+        int[] buf = holder.get();
+        if (buf.length < size) {
+            buf = new int[size];
+            holder.set(buf);
+        }
+        return buf;
+    }
+
+    // ---------------------------------------------------------
+    // 3. ADD / WRITE-BACK
+    // ---------------------------------------------------------
+    public void add(String brand, String hit) {
+        String normalized = normalize(brand);
+        if (normalized.isEmpty() || hit == null) return;
+        if (addInMemory(normalized, hit)) append(normalized, hit);
+    }
+
+    private boolean addInMemory(String normalized, String hit) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = exact.get(normalized);
+            if (existing != null && entries.get(existing).hit.equals(hit)) return false;
+
+            Set<String> grams = trigramsOf(normalized);
+            int id = entries.size();
+            entries.add(new Entry(normalized, hit, grams.size()));
+            exact.put(normalized, id); // newest entry for a brand wins
+            if (existing == null) {
+                for (String gram : grams) trigrams.computeIfAbsent(gram, g -> new Postings()).add(id);
+            } else {
+                // Re-point the old postings at the new entry instead of indexing the brand twice
+                for (Postings postings : trigrams.values()) {
+                    for (int i = 0; i < postings.size; i++) {
+                        if (postings.ids[i] == existing) postings.ids[i] = id;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private synchronized void append(String normalized, String hit) {
+        if (file == null) return;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            out.write(normalized + '\t' + hit.replace('\n', ' ').replace('\t', ' ') + '\n');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return exact.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. SEEDING FROM SAVED SEARCH PAGES
+    // ---------------------------------------------------------
+    // A saved https://www.ethicalconsumer.org/search?keywords=... page: the query is the brand,
+    // the first result is its hit (same selector as the live scrape)
+    public boolean seedFromSearchPage(File html) throws IOException {
+        Document doc = Jsoup.parse(html, "UTF-8", "https://www.ethicalconsumer.org/");
+        Element keywords = doc.selectFirst("input[name=keywords]");
+        Element topLink = doc.selectFirst(".search-result__title a");
+        if (keywords == null || keywords.val().isBlank() || topLink == null) return false;
+
+        add(keywords.val(), topLink.text() + " -> https://www.ethicalconsumer.org" + topLink.attr("href"));
+        return true;
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws IOException {
+        BrandIndex index = shared();
+        if (args.length >= 2 && args[0].equals("seed")) {
+            int seeded = 0;
+            for (int i = 1; i < args.length; i++) {
+                if (index.seedFromSearchPage(new File(args[i]))) seeded++;
+            }
+            System.out.println("Seeded " + seeded + " page(s); index has " + index.size() + " brands");
+        } else if (args.length >= 2 && args[0].equals("match")) {
+            long start = System.nanoTime();
+            String hit = index.match(args[1]);
+            long took = System.nanoTime() - start;
+            System.out.println(normalize(args[1]) + " -> " + hit);
+            System.out.printf(Locale.ROOT, "(%.1f µs)%n", took / 1e3);
+        } else {
+            System.err.println("Usage: BrandIndex seed <page.html>... | match <manufacturer>");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ImageInputStream over a ByteBuffer (heap, direct or memory-mapped).
+ *
+ * ImageIO.createImageInputStream(InputStream) wraps streams in a cache that copies every
+ * byte once more (into memory, or into a temp file when ImageIO.getUseCache() is on, which is
+ * the default). The encoded image is already addressable here, so readers seek and read it
+ * in place.
+ */
+final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer; // position == streamPos
+
+    ByteBufferImageInputStream(ByteBuffer encoded) {
+        this.buffer = encoded.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!buffer.hasRemaining()) return -1;
+        streamPos++;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) return 0;
+        int n = Math.min(len, buffer.remaining());
+        if (n == 0) return -1;
+        buffer.get(b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        super.seek(pos);
+        buffer.position((int) Math.min(pos, buffer.limit()));
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * CorpusGenerator.java
+ *
+ * Synthetic, labelled barcode images for load and accuracy testing (see LoadDriver).
+ *
+ * Each image is a freshly encoded EAN-13 / UPC-A / EAN-8 / Code 128 / QR code (ZXing writers),
+ * put through the distortions a phone photo adds: rotation, rescaling, Gaussian blur, sensor
+ * noise and JPEG compression. Images cycle through five distortion levels, from "clean" (a
+ * lossless PNG) to "extreme", and draw their parameters at random within the level's limits.
+ * Everything is seeded, so the same arguments give the same corpus.
+ *
+ * labels.csv in the output directory lists every image with its format, encoded text, level
+ * and the exact parameters used.
+ *
+ * Usage:
+ * java -cp "..." CorpusGenerator <outDir> [--count N] [--seed S] [--formats ean13,upca,ean8,code128,qr] [--threads N]
+ */
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class CorpusGenerator {
+
+    static final String LABELS_FILE = "labels.csv";
+
+    // ---------------------------------------------------------
+    // 1. DISTORTION LEVELS
+    // ---------------------------------------------------------
+    // Upper limits per level; each image draws uniformly below them (rotation in ±degrees,
+    // blur and noise as Gaussian sigmas in pixels / grey levels, scale as a [min, max] range)
+    static final class Level {
+        final String name;
+        final double maxBlur;
+        final double maxRotation;
+        final double maxNoise;
+        final double minScale;
+        final double maxScale;
+        final float minJpegQuality; // 0 = lossless PNG
+
+        Level(String name, double maxBlur, double maxRotation, double maxNoise,
+              double minScale, double maxScale, float minJpegQuality) {
+            this.name = name;
+            this.maxBlur = maxBlur;
+            this.maxRotation = maxRotation;
+            this.maxNoise = maxNoise;
+            this.minScale = minScale;
+            this.maxScale = maxScale;
+            this.minJpegQuality = minJpegQuality;
+        }
+    }
+
+    static final Level[] LEVELS = {
+            new Level("clean", 0, 0, 0, 1.0, 1.0, 0f),
+            new Level("light", 0.6, 3, 4, 0.8, 1.2, 0.9f),
+            new Level("medium", 1.2, 10, 10, 0.6, 1.4, 0.7f),
+            new Level("heavy", 2.0, 25, 20, 0.45, 1.6, 0.5f),
+            new Level("extreme", 3.0, 45, 35, 0.3, 2.0, 0.3f),
+    };
+
+    private static final Map<String, BarcodeFormat> FORMAT_NAMES = Map.of(
+            "ean13", BarcodeFormat.EAN_13,
+            "upca", BarcodeFormat.UPC_A,
+            "ean8", BarcodeFormat.EAN_8,
+            "code128", BarcodeFormat.CODE_128,
+            "qr", BarcodeFormat.QR_CODE);
+
+    private static final String ALPHANUMERIC = "ABCDEFGHJKLMNPQRSTUVWXYZ0123456789";
+
+    private final File outDir;
+    private final List<BarcodeFormat> formats;
+    private final long seed;
+
+    public CorpusGenerator(File outDir, List<BarcodeFormat> formats, long seed) {
+        this.outDir = outDir;
+        this.formats = formats;
+        this.seed = seed;
+    }
+
+    // ---------------------------------------------------------
+    // 2. ONE LABELLED IMAGE
+    // ---------------------------------------------------------
+    // Image i: level i % 5, format (i / 5) % formats, so levels and formats stay balanced.
+    // Returns its labels.csv row.
+    String generate(int index) throws IOException, WriterException {
+        Random random = new Random(seed * 1_000_003L + index);
+        int levelIndex = index % LEVELS.length;
+        Level level = LEVELS[levelIndex];
+        BarcodeFormat format = formats.get(index / LEVELS.length % formats.size());
+        String text = content(format, random);
+
+        double rotation = level.maxRotation == 0 ? 0 : (random.nextDouble() * 2 - 1) * level.maxRotation;
+        double scale = level.minScale + random.nextDouble() * (level.maxScale - level.minScale);
+        double blur = random.nextDouble() * level.maxBlur;
+        double noise = random.nextDouble() * level.maxNoise;
+        float quality = level.minJpegQuality == 0 ? 0
+                : level.minJpegQuality + random.nextFloat() * (1 - level.minJpegQuality);
+
+        BufferedImage image = render(format, text);
+        image = transform(image, rotation, scale);
+        if (blur >= 0.3) image = blur(image, blur);
+        if (noise >= 1) addNoise(image, noise, random);
+
+        String name = String.format(Locale.ROOT, "%06d-%s-%s.%s", index,
+                format.name().toLowerCase(Locale.ROOT), level.name, quality == 0 ? "png" : "jpg");
+        write(image, new File(outDir, name), quality);
+
+        return String.format(Locale.ROOT, "%s,%s,%s,%d,%.2f,%.1f,%.1f,%.2f,%s", name, format, text, levelIndex,
+                blur, rotation, noise, scale, quality == 0 ? "" : String.format(Locale.ROOT, "%.2f", quality));
+    }
+
+    // Valid content per symbology: GTINs get a correct check digit, so they decode as themselves
+    private static String content(BarcodeFormat format, Random random) {
+        switch (format) {
+            case EAN_13: return gtin(12, random);
+            case UPC_A: return gtin(11, random);
+            case EAN_8: return gtin(7, random);
+            case CODE_128: return "SN" + alphanumeric(10, random);
+            default: return "https://example.com/p/" + alphanumeric(12, random);
+        }
+    }
+
+    private static String gtin(int bodyDigits, Random random) {
+        long body = 1 + random.nextInt(9); // no leading zero, so the text keeps its length
+        for (int i = 1; i < bodyDigits; i++) body = body * 10 + random.nextInt(10);
+        return Long.toString(body) + Gtin.checkDigit(body);
+    }
+
+    private static String alphanumeric(int length, Random random) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(ALPHANUMERIC.charAt(random.nextInt(ALPHANUMERIC.length())));
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------
+    // 3. RENDER + DISTORT
+    // ---------------------------------------------------------
+    // Roughly 3 px per module, quiet zone included, like a close-up label photo
+    private static BufferedImage render(BarcodeFormat format, String text) throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, format == BarcodeFormat.QR_CODE ? 4 : 10);
+        MultiFormatWriter writer = new MultiFormatWriter();
+        // Size 0 gives one pixel per module; encode again at 3
+        int width = writer.encode(text, format, 0, 0, hints).getWidth() * 3;
+        BitMatrix matrix = writer.encode(text, format, width, format == BarcodeFormat.QR_CODE ? width : 160, hints);
+        return MatrixToImageWriter.toBufferedImage(matrix);
+    }
+
+    // Rotation about the centre and rescaling in one bilinear pass, on a white canvas big
+    // enough for the rotated label
+    private static BufferedImage transform(BufferedImage source, double degrees, double scale) {
+        double radians = Math.toRadians(degrees);
+        double sin = Math.abs(Math.sin(radians));
+        double cos = Math.abs(Math.cos(radians));
+        int w = source.getWidth();
+        int h = source.getHeight();
+        int width = Math.max(1, (int) Math.ceil((w * cos + h * sin) * scale));
+        int height = Math.max(1, (int) Math.ceil((w * sin + h * cos) * scale));
+
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        AffineTransform t = new AffineTransform();
+        t.translate(width / 2.0, height / 2.0);
+        t.rotate(radians);
+        t.scale(scale, scale);
+        t.translate(-w / 2.0, -h / 2.0);
+        g.drawImage(source, t, null);
+        g.dispose();
+        return out;
+    }
+
+    // Separable Gaussian: a horizontal then a vertical 1-D kernel
+    private static BufferedImage blur(BufferedImage image, double sigma) {
+        int radius = (int) Math.ceil(sigma * 3);
+        float[] weights = new float[radius * 2 + 1];
+        float sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += weights[i + radius];
+        }
+        for (int i = 0; i < weights.length; i++) weights[i] /= sum;
+
+        BufferedImage horizontal = new ConvolveOp(new Kernel(weights.length, 1, weights), ConvolveOp.EDGE_NO_OP, null)
+                .filter(image, null);
+        return new ConvolveOp(new Kernel(1, weights.length, weights), ConvolveOp.EDGE_NO_OP, null)
+                .filter(horizontal, null);
+    }
+
+    // Luminance noise: the same Gaussian offset on all three channels of a pixel
+    private static void addNoise(BufferedImage image, double sigma, Random random) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            int delta = (int) Math.round(random.nextGaussian() * sigma);
+            int p = pixels[i];
+            int r = clamp(((p >> 16) & 0xFF) + delta);
+            int g = clamp(((p >> 8) & 0xFF) + delta);
+            int b = clamp((p & 0xFF) + delta);
+            pixels[i] = (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(v, 255);
+    }
+
+    private static void write(BufferedImage image, File file, float jpegQuality) throws IOException {
+        if (jpegQuality == 0) {
+            ImageIO.write(image, "png", file);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. WHOLE CORPUS (parallel, rows written in index order)
+    // ---------------------------------------------------------
+    public void run(int count, int threads) throws Exception {
+        outDir.mkdirs();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "corpus-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<String>> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                rows.add(pool.submit(() -> generate(index)));
+            }
+            try (PrintWriter labels = new PrintWriter(new File(outDir, LABELS_FILE), StandardCharsets.UTF_8)) {
+                labels.println("file,format,text,level,blur,rotation,noise,scale,jpegQuality");
+                for (Future<String> row : rows) labels.println(row.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        File outDir = null;
+        int count = 1000;
+        long seed = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<BarcodeFormat> formats = new ArrayList<>(List.of(BarcodeFormat.EAN_13, BarcodeFormat.UPC_A,
+                BarcodeFormat.EAN_8, BarcodeFormat.CODE_128, BarcodeFormat.QR_CODE));
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase(Locale.ROOT)) {
+                    case "--count": count = Integer.parseInt(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--formats":
+                        formats.clear();
+                        for (String name : args[++i].split(",")) {
+                            BarcodeFormat format = FORMAT_NAMES.get(name.trim().toLowerCase(Locale.ROOT));
+                            if (format == null) throw new IllegalArgumentException("Unknown format: " + name);
+                            formats.add(format);
+                        }
+                        break;
+                    default: outDir = new File(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        if (outDir == null || count < 1 || formats.isEmpty()) {
+            System.err.println("Usage: CorpusGenerator <outDir> [--count N] [--seed S] "
+                    + "[--formats ean13,upca,ean8,code128,qr] [--threads N]");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        new CorpusGenerator(outDir, formats, seed).run(count, Math.max(1, threads));
+        System.err.printf("Generated %d images in %s in %.1f s%n", count, outDir, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,296 @@
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decode strategy engine for hard images (low contrast, blur, inverted or rotated labels).
+ *
+ * The plain HybridBinarizer fast pass runs inline first; it wins on most images and costs
+ * nothing extra. Only when it fails are the remaining strategies raced on a core-sized pool:
+ * the first success wins and the others are cancelled. A 1D decode already in progress stops
+ * within a row; a 2D decode stops once its binarization finishes, but a QR/DataMatrix reader
+ * already working on the binarized matrix runs to completion. Wins are counted per strategy
+ * and the race submits strategies most-successful-first, which matters when there are fewer
+ * cores than strategies. When the pool is already saturated (e.g. batch mode on every core)
+ * the same order runs sequentially on the caller instead.
+ *
+ * Tuning: -Ddecoder.race=false (sequential only), -Ddecoder.raceThreads=N (default: cores)
+ */
+public final class DecodeRace {
+
+    public enum Strategy {
+        HYBRID,            // what the app always did first
+        GLOBAL_HISTOGRAM,  // one global threshold: copes better with blur / soft edges
+        INVERTED,          // light bars on a dark background
+        ROTATED,           // label photographed sideways
+        CROPPED,           // centre of the frame, away from clutter near the edges
+        HYBRID_TRY_HARDER  // the old slow fallback, now just one of the contenders
+    }
+
+    static final boolean RACE_ENABLED = Boolean.parseBoolean(System.getProperty("decoder.race", "true"));
+    private static final int THREADS = Integer.getInteger("decoder.raceThreads", Runtime.getRuntime().availableProcessors());
+
+    private static final Strategy[] STRATEGIES = Strategy.values();
+    private static final AtomicLongArray WINS = new AtomicLongArray(STRATEGIES.length);
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "decode-race");
+                t.setDaemon(true);
+                return t;
+            });
+
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private DecodeRace() {
+    }
+
+    // ---------------------------------------------------------
+    // 1. DECODE
+    // ---------------------------------------------------------
+    public static Result decode(LuminanceSource source, BarcodeDecoder.Profile profile) {
+        Result result = attempt(Strategy.HYBRID, source, profile, null);
+        if (result != null) {
+            WINS.incrementAndGet(Strategy.HYBRID.ordinal());
+            return result;
+        }
+
+        List<Strategy> order = ranked();
+        boolean saturated = !POOL.getQueue().isEmpty();
+        if (!RACE_ENABLED || THREADS < 2 || saturated) {
+            return sequential(order, source, profile);
+        }
+        return race(order, source, profile);
+    }
+
+    private static Result sequential(List<Strategy> order, LuminanceSource source, BarcodeDecoder.Profile profile) {
+        for (Strategy strategy : order) {
+            Result result = attempt(strategy, source, profile, null);
+            if (result != null) {
+                WINS.incrementAndGet(strategy.ordinal());
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static Result race(List<Strategy> order, LuminanceSource source, BarcodeDecoder.Profile profile) {
+        CancellableSource.Token token = new CancellableSource.Token();
+        CompletableFuture<Result> first = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(order.size());
+        List<Future<?>> tasks = new ArrayList<>(order.size());
+        ScanMetrics.Trace trace = ScanMetrics.currentTrace();
+
+        for (Strategy strategy : order) {
+            tasks.add(POOL.submit(() -> {
+                try {
+                    if (token.cancelled) return;
+                    Result result = trace != null
+                            ? trace.around(() -> attempt(strategy, source, profile, token))
+                            : attempt(strategy, source, profile, token);
+                    if (result != null && first.complete(result)) {
+                        WINS.incrementAndGet(strategy.ordinal());
+                        token.cancelled = true;
+                    }
+                } catch (CancellationException e) {
+                    // lost the race
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // a broken strategy is a miss, not a failed scan
+                } finally {
+                    if (remaining.decrementAndGet() == 0) first.complete(null);
+                }
+            }));
+        }
+
+        try {
+            return first.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            token.cancelled = true;
+            for (Future<?> task : tasks) task.cancel(false); // still queued: never starts
+        }
+    }
+
+    // Remaining strategies, most wins first (ties keep declaration order)
+    static List<Strategy> ranked() {
+        List<Strategy> order = new ArrayList<>(STRATEGIES.length - 1);
+        for (Strategy strategy : STRATEGIES) {
+            if (strategy != Strategy.HYBRID) order.add(strategy);
+        }
+        order.sort(Comparator.comparingLong((Strategy s) -> -WINS.get(s.ordinal())));
+        return order;
+    }
+
+    public static long wins(Strategy strategy) {
+        return WINS.get(strategy.ordinal());
+    }
+
+    // ---------------------------------------------------------
+    // 2. STRATEGIES
+    // ---------------------------------------------------------
+    private static Result attempt(Strategy strategy, LuminanceSource source, BarcodeDecoder.Profile profile,
+                                  CancellableSource.Token token) {
+        LuminanceSource view = view(strategy, source);
+        if (view == null) return null;
+        if (token != null) view = new CancellableSource(view, token);
+
+        Binarizer binarizer = strategy == Strategy.GLOBAL_HISTOGRAM
+                ? new GlobalHistogramBinarizer(view)
+                : new HybridBinarizer(view);
+        if (token != null) binarizer = new CancellableBinarizer(binarizer, token);
+        return BarcodeDecoder.decodeBitmap(binarizer, profile, strategy == Strategy.HYBRID_TRY_HARDER);
+    }
+
+    private static LuminanceSource view(Strategy strategy, LuminanceSource source) {
+        switch (strategy) {
+            case INVERTED:
+                return source.invert();
+            case ROTATED:
+                return rotate(source);
+            case CROPPED: {
+                if (!source.isCropSupported()) return null;
+                int w = source.getWidth();
+                int h = source.getHeight();
+                return source.crop(w / 5, h / 5, w * 3 / 5, h * 3 / 5);
+            }
+            default:
+                return source;
+        }
+    }
+
+    // rotateCounterClockwise where the source supports it; the planar grayscale sources used
+    // by ImagePreprocessor do not, so those get a rotated copy of their pixels.
+    static LuminanceSource rotate(LuminanceSource source) {
+        if (source.isRotateSupported()) return source.rotateCounterClockwise();
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] pixels = source.getMatrix();
+        byte[] rotated = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                rotated[(width - 1 - x) * height + y] = pixels[row + x];
+            }
+        }
+        return new PlanarYUVLuminanceSource(rotated, height, width, 0, 0, height, width, false);
+    }
+
+    // ---------------------------------------------------------
+    // 3. COOPERATIVE CANCELLATION
+    // ---------------------------------------------------------
+    // ZXing readers cannot be interrupted. 1D readers pull every row through the luminance
+    // source, so once the race is decided those reads throw and the losing decode unwinds.
+    // 2D readers only fetch the whole image once, for binarization, and then work on the
+    // cached matrix: CancellableBinarizer checks again after that step, which is the last
+    // point a losing QR/DataMatrix decode can be stopped.
+    static final class CancellableSource extends LuminanceSource {
+
+        static final class Token {
+            volatile boolean cancelled;
+        }
+
+        private final LuminanceSource delegate;
+        private final Token token;
+
+        CancellableSource(LuminanceSource delegate, Token token) {
+            super(delegate.getWidth(), delegate.getHeight());
+            this.delegate = delegate;
+            this.token = token;
+        }
+
+        private void check() {
+            if (token.cancelled) throw new CancellationException();
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            check();
+            return delegate.getRow(y, row);
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            check();
+            return delegate.getMatrix();
+        }
+
+        @Override
+        public boolean isCropSupported() {
+            return delegate.isCropSupported();
+        }
+
+        @Override
+        public LuminanceSource crop(int left, int top, int width, int height) {
+            return new CancellableSource(delegate.crop(left, top, width, height), token);
+        }
+
+        @Override
+        public boolean isRotateSupported() {
+            return delegate.isRotateSupported();
+        }
+
+        @Override
+        public LuminanceSource rotateCounterClockwise() {
+            return new CancellableSource(delegate.rotateCounterClockwise(), token);
+        }
+
+        @Override
+        public LuminanceSource rotateCounterClockwise45() {
+            return new CancellableSource(delegate.rotateCounterClockwise45(), token);
+        }
+    }
+
+    static final class CancellableBinarizer extends Binarizer {
+        private final Binarizer delegate;
+        private final CancellableSource.Token token;
+
+        CancellableBinarizer(Binarizer delegate, CancellableSource.Token token) {
+            super(delegate.getLuminanceSource());
+            this.delegate = delegate;
+            this.token = token;
+        }
+
+        @Override
+        public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+            return delegate.getBlackRow(y, row); // the source checks every row read
+        }
+
+        @Override
+        public BitMatrix getBlackMatrix() throws NotFoundException {
+            BitMatrix matrix = delegate.getBlackMatrix();
+            if (token.cancelled) throw new CancellationException();
+            return matrix;
+        }
+
+        @Override
+        public Binarizer createBinarizer(LuminanceSource source) {
+            return new CancellableBinarizer(delegate.createBinarizer(source), token);
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/**
+ * FrameScanner.java
+ *
+ * Continuous scanning of a video stream instead of single still images.
+ *
+ * Frame sources:
+ * - Y4M (YUV4MPEG2) file, URL or stdin: the Y plane is used as-is, no image decoding at all
+ * - MJPEG (concatenated JPEGs) file or URL, e.g. an IP camera's /video endpoint
+ * - Camera: the JDK has no camera API, so pipe one in as Y4M, e.g.
+ *   ffmpeg -f v4l2 -i /dev/video0 -f yuv4mpegpipe -pix_fmt gray - | java ... FrameScanner -
+ *
+ * A reader thread pulls frames into a small drop-oldest queue; a dedicated decoder thread
+ * always works on the freshest frame. When decoding is slower than the frame rate the reader
+ * skips frames without converting them. A code that stays in view is reported once.
+ *
+ * Usage:
+ * java -cp "..." FrameScanner [--lookup] [--fps N] <file.y4m | file.mjpeg | http://... | ->
+ */
+
+import com.google.zxing.Result;
+
+import javax.imageio.IIOException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class FrameScanner implements Closeable {
+
+    // A code seen again within this window is treated as the same product still in view
+    private static final long REPEAT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+    private static final int QUEUE_CAPACITY = 2;
+    private static final int MAX_SKIP_STRIDE = 30;
+
+    // ---------------------------------------------------------
+    // 1. FRAMES + SOURCES
+    // ---------------------------------------------------------
+    static final class Frame {
+        final ImagePreprocessor.GrayImage image;
+        final long capturedNanos;
+        private final ImagePreprocessor.BufferPool pool;
+
+        Frame(ImagePreprocessor.GrayImage image, long capturedNanos, ImagePreprocessor.BufferPool pool) {
+            this.image = image;
+            this.capturedNanos = capturedNanos;
+            this.pool = pool;
+        }
+
+        // Hands the pixels back to the source once the frame is decoded or dropped
+        void release() {
+            if (pool != null) pool.release(image.pixels);
+        }
+    }
+
+    // Frames in the queue, one being decoded, one being read
+    private static final int POOLED_FRAMES = QUEUE_CAPACITY + 2;
+
+    public interface FrameSource extends Closeable {
+        // Next frame, or null at end of stream
+        Frame next() throws IOException;
+
+        // Advance past one frame as cheaply as possible; false at end of stream
+        boolean skip() throws IOException;
+
+        // Native frame rate if the container declares one, else 0
+        default double fps() {
+            return 0;
+        }
+
+        // Frames the source passed over itself because they could not be decoded
+        default long framesUnreadable() {
+            return 0;
+        }
+    }
+
+    public static FrameSource open(String location) throws IOException {
+        InputStream raw;
+        if ("-".equals(location)) {
+            raw = System.in;
+        } else if (location.startsWith("http://") || location.startsWith("https://")) {
+            raw = URI.create(location).toURL().openStream();
+        } else {
+            raw = new FileInputStream(location);
+        }
+        BufferedInputStream in = new BufferedInputStream(raw, 1 << 16);
+
+        // Sniff the container: Y4M starts with a text signature, MJPEG with a JPEG SOI marker
+        in.mark(10);
+        byte[] magic = in.readNBytes(9);
+        in.reset();
+        if (new String(magic, StandardCharsets.US_ASCII).startsWith("YUV4MPEG2")) {
+            return new Y4mSource(in);
+        }
+        return new MjpegSource(in);
+    }
+
+    // YUV4MPEG2: text header, then "FRAME\n" + planar Y, U, V per frame
+    static final class Y4mSource implements FrameSource {
+        private final InputStream in;
+        private final int width;
+        private final int height;
+        private final int chromaBytes;
+        private final double fps;
+        private final ImagePreprocessor.BufferPool pool = new ImagePreprocessor.BufferPool(POOLED_FRAMES);
+
+        Y4mSource(InputStream in) throws IOException {
+            this.in = in;
+            String[] header = readLine(in).split(" ");
+            int w = 0;
+            int h = 0;
+            double rate = 0;
+            String colour = "420";
+            for (String token : header) {
+                if (token.isEmpty()) continue;
+                switch (token.charAt(0)) {
+                    case 'W': w = Integer.parseInt(token.substring(1)); break;
+                    case 'H': h = Integer.parseInt(token.substring(1)); break;
+                    case 'F': {
+                        String[] ratio = token.substring(1).split(":");
+                        rate = Double.parseDouble(ratio[0]) / Double.parseDouble(ratio[1]);
+                        break;
+                    }
+                    case 'C': colour = token.substring(1); break;
+                    default: break;
+                }
+            }
+            if (w <= 0 || h <= 0) throw new IOException("Y4M header without W/H");
+            this.width = w;
+            this.height = h;
+            this.fps = rate;
+            this.chromaBytes = chromaBytes(colour, w, h);
+        }
+
+        private static int chromaBytes(String colour, int w, int h) {
+            if (colour.startsWith("mono")) return 0;
+            if (colour.startsWith("444")) return 2 * w * h;
+            if (colour.startsWith("422")) return 2 * ((w + 1) / 2) * h;
+            return 2 * ((w + 1) / 2) * ((h + 1) / 2); // 420 variants (default)
+        }
+
+        @Override
+        public Frame next() throws IOException {
+            if (!frameHeader()) return null;
+            long captured = System.nanoTime();
+            byte[] luma = pool.acquire(width * height);
+            if (in.readNBytes(luma, 0, width * height) < width * height) {
+                pool.release(luma);
+                return null;
+            }
+            in.skipNBytes(chromaBytes);
+            return new Frame(new ImagePreprocessor.GrayImage(luma, width, height, 1), captured, pool);
+        }
+
+        @Override
+        public boolean skip() throws IOException {
+            if (!frameHeader()) return false;
+            try {
+                in.skipNBytes((long) width * height + chromaBytes);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private boolean frameHeader() throws IOException {
+            String line = readLine(in);
+            return line != null && line.startsWith("FRAME");
+        }
+
+        @Override
+        public double fps() {
+            return fps;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Concatenated JPEGs, with or without multipart boundaries between them: each frame is
+    // the bytes from an SOI marker (FF D8) up to the next EOI marker (FF D9)
+    static final class MjpegSource implements FrameSource {
+        private final InputStream in;
+        private final JpegBuffer jpeg = new JpegBuffer(1 << 16);
+        private final ImagePreprocessor.BufferPool pool = new ImagePreprocessor.BufferPool(POOLED_FRAMES);
+        private final AtomicLong unreadable = new AtomicLong();
+
+        MjpegSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public Frame next() throws IOException {
+            while (readJpeg()) {
+                long captured = System.nanoTime();
+                // Decoded in place from the frame buffer; frames outlive this call (they sit in the
+                // queue), so the gray pixels come from the pool rather than the per-thread buffer
+                ImagePreprocessor.GrayImage image;
+                try {
+                    image = ImagePreprocessor.read(jpeg.bytes(), 0, pool);
+                } catch (IIOException e) {
+                    image = null; // corrupt frame: one bad frame must not end the stream
+                }
+                if (image != null) return new Frame(image, captured, pool);
+                unreadable.incrementAndGet(); // not a JPEG after all: move on
+            }
+            return null;
+        }
+
+        @Override
+        public long framesUnreadable() {
+            return unreadable.get();
+        }
+
+        @Override
+        public boolean skip() throws IOException {
+            return readJpeg(); // no JPEG decode for skipped frames
+        }
+
+        private boolean readJpeg() throws IOException {
+            jpeg.reset();
+            int prev = -1;
+            int b;
+            // Seek SOI
+            while ((b = in.read()) != -1) {
+                if (prev == 0xFF && b == 0xD8) break;
+                prev = b;
+            }
+            if (b == -1) return false;
+            jpeg.write(0xFF);
+            jpeg.write(0xD8);
+            prev = -1;
+            while ((b = in.read()) != -1) {
+                jpeg.write(b);
+                if (prev == 0xFF && b == 0xD9) return true;
+                prev = b;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // The current JPEG, readable in place instead of copied out by toByteArray()
+    private static final class JpegBuffer extends ByteArrayOutputStream {
+        JpegBuffer(int size) {
+            super(size);
+        }
+
+        synchronized ByteBuffer bytes() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') sb.append((char) b);
+        return b == -1 && sb.length() == 0 ? null : sb.toString();
+    }
+
+    // ---------------------------------------------------------
+    // 2. READER / DECODER THREADS
+    // ---------------------------------------------------------
+    public static final class Detection {
+        public final Result result;
+        public final long latencyNanos; // frame captured → code decoded
+
+        Detection(Result result, long latencyNanos) {
+            this.result = result;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    private final FrameSource source;
+    private final Consumer<Detection> listener;
+    private final double pacingFps;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread reader;
+    private final Thread decoder;
+    private volatile boolean running = true;
+    private volatile boolean endOfStream;
+
+    // Decoder → reader feedback for adaptive skipping
+    private volatile double decodeNanosEwma;
+    private volatile double frameIntervalEwma;
+
+    final AtomicLong framesRead = new AtomicLong();
+    final AtomicLong framesSkipped = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+    final AtomicLong framesDecoded = new AtomicLong();
+
+    // Code → when it was last decoded; decode thread only
+    private final Map<String, Long> recentCodes = new HashMap<>();
+
+    // pacingFps > 0 replays a file at that rate (live sources pace themselves)
+    public FrameScanner(FrameSource source, double pacingFps, Consumer<Detection> listener) {
+        this.source = source;
+        this.listener = listener;
+        this.pacingFps = pacingFps;
+        this.reader = new Thread(this::readLoop, "frame-reader");
+        this.decoder = new Thread(this::decodeLoop, "frame-decoder");
+        reader.setDaemon(true);
+        decoder.setDaemon(true);
+    }
+
+    public void start() {
+        reader.start();
+        decoder.start();
+    }
+
+    public void awaitEnd() throws InterruptedException {
+        decoder.join();
+    }
+
+    private void readLoop() {
+        long frameIndex = 0;
+        long lastArrival = 0;
+        long pacingNanos = pacingFps > 0 ? (long) (1e9 / pacingFps) : 0;
+        long nextDue = System.nanoTime();
+
+        try {
+            while (running) {
+                if (pacingNanos > 0) {
+                    long wait = nextDue - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    nextDue += pacingNanos;
+                }
+
+                long now = System.nanoTime();
+                if (lastArrival != 0) frameIntervalEwma = ewma(frameIntervalEwma, now - lastArrival);
+                lastArrival = now;
+
+                // Decode only every stride-th frame while the decoder can't keep up
+                if (frameIndex++ % skipStride() != 0) {
+                    if (!source.skip()) break;
+                    framesSkipped.incrementAndGet();
+                    continue;
+                }
+
+                Frame frame = source.next();
+                if (frame == null) break;
+                framesRead.incrementAndGet();
+
+                // Drop-oldest: the decoder should always see the freshest frame
+                while (!queue.offer(frame)) {
+                    Frame stale = queue.poll();
+                    if (stale != null) {
+                        stale.release();
+                        framesDropped.incrementAndGet();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            endOfStream = true;
+        }
+    }
+
+    private int skipStride() {
+        double interval = frameIntervalEwma;
+        if (interval <= 0) return 1;
+        int stride = (int) Math.ceil(decodeNanosEwma / interval);
+        return Math.max(1, Math.min(MAX_SKIP_STRIDE, stride));
+    }
+
+    private void decodeLoop() {
+        try {
+            while (running) {
+                Frame frame = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    if (endOfStream && queue.isEmpty()) break;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                // Fast pass only: TRY_HARDER would blow the latency budget, and the next frame is another try
+                Result result = BarcodeDecoder.decodeFast(frame.image.source(), BarcodeDecoder.DEFAULT_PROFILE);
+                long end = System.nanoTime();
+                frame.release();
+                decodeNanosEwma = ewma(decodeNanosEwma, end - start);
+                framesDecoded.incrementAndGet();
+                ScanMetrics.countDecode(result);
+
+                if (result != null && isNewCode(result.getText(), end)) {
+                    listener.accept(new Detection(result, end - frame.capturedNanos));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Suppress a code that is still (or again, within the window) in view. Every code in the
+    // window is remembered, so two products whose decodes alternate are each reported once.
+    private boolean isNewCode(String text, long now) {
+        recentCodes.values().removeIf(seen -> now - seen >= REPEAT_WINDOW_NANOS);
+        return recentCodes.put(text, now) == null;
+    }
+
+    private static double ewma(double current, long sample) {
+        return current == 0 ? sample : current * 0.8 + sample * 0.2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        reader.interrupt();
+        source.close();
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws Exception {
+        boolean lookup = false;
+        double fps = -1;
+        String location = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--lookup": lookup = true; break;
+                    case "--fps": fps = Double.parseDouble(args[++i]); break;
+                    default: location = args[i];
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+        if (location == null) {
+            System.err.println("Usage: FrameScanner [--lookup] [--fps N] <file.y4m | file.mjpeg | http://... | ->");
+            System.exit(1);
+        }
+
+        FrameSource source = open(location);
+        // Files replay at their declared rate unless --fps says otherwise; stdin/URLs are live
+        boolean live = "-".equals(location) || location.contains("://");
+        double pacing = fps >= 0 ? fps : (live ? 0 : source.fps());
+
+        final boolean doLookup = lookup;
+        List<CompletableFuture<Void>> lookups = new CopyOnWriteArrayList<>();
+        FrameScanner scanner = new FrameScanner(source, pacing, detection -> {
+            String code = detection.result.getText();
+            System.out.printf(Locale.ROOT, "%s %s (%.1f ms)%n", code, detection.result.getBarcodeFormat(),
+                    detection.latencyNanos / 1e6);
+            if (doLookup) {
+                lookups.add(CompletableFuture.runAsync(() -> System.out.println(code + " -> "
+                        + ProductLookups.searchManufacturerByBarcode(code))));
+            }
+        });
+        scanner.start();
+        scanner.awaitEnd();
+        CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).join();
+        System.err.printf(Locale.ROOT, "frames read=%d skipped=%d dropped=%d decoded=%d%n", scanner.framesRead.get(),
+                scanner.framesSkipped.get() + source.framesUnreadable(), scanner.framesDropped.get(), scanner.framesDecoded.get());
+        scanner.close();
+    }
+}
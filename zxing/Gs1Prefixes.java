@@ -0,0 +1,229 @@
+/**
+ * Gs1Prefixes.java
+ *
+ * GS1 company prefix → brand owner, so the manufacturer of most scanned products is known
+ * without a BarcodeLookup call (or its quota). Every EAN/UPC starts with the company prefix
+ * GS1 issued to its brand owner; only codes whose prefix isn't in the table go to the API.
+ *
+ * - Each prefix is a range of GTIN-13 keys: "7622300" covers 7622300000000..7622309999999.
+ *   Starts and ends are sorted primitive long[]s, so a lookup is one binary search.
+ * - Ranges may nest (a GS1 member organisation's "300" around its members' prefixes):
+ *   each range keeps the index of the range enclosing it, and the most specific one wins.
+ * - Imported from a prefix list, one "prefix<TAB or comma>brand owner" per line, prefixes
+ *   aligned to GTIN-13 (UPC prefixes with their leading 0). Lines that don't parse (headers,
+ *   comments) are skipped; a prefix listed twice keeps its last owner.
+ *
+ * Usage:
+ * java -cp "..." Gs1Prefixes import <prefixes.tsv|prefixes.csv>
+ * java -cp "..." Gs1Prefixes lookup <barcode>
+ *
+ * Table file: ~/.barcode-scanner/gs1-prefixes.tsv (override with -Dgs1Prefixes.file=...)
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class Gs1Prefixes {
+
+    private static final int MAX_PREFIX_DIGITS = 12;
+
+    // Sorted by start, enclosing range before the ranges inside it
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] parents; // index of the enclosing range, or -1
+    private final String[] owners;
+
+    private static volatile Gs1Prefixes shared;
+    private static volatile boolean sharedLoaded;
+
+    // ---------------------------------------------------------
+    // 1. LOAD / SHARED INSTANCE
+    // ---------------------------------------------------------
+    public static File defaultFile() {
+        return new File(System.getProperty("gs1Prefixes.file", System.getProperty("user.home")
+                + File.separator + ".barcode-scanner" + File.separator + "gs1-prefixes.tsv"));
+    }
+
+    // The process-wide table, or null when none has been imported
+    public static Gs1Prefixes shared() {
+        if (!sharedLoaded) {
+            synchronized (Gs1Prefixes.class) {
+                if (!sharedLoaded) {
+                    File file = defaultFile();
+                    if (file.isFile()) {
+                        try {
+                            shared = load(file);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    sharedLoaded = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    public static Gs1Prefixes load(File file) throws IOException {
+        return new Gs1Prefixes(read(file));
+    }
+
+    // Prefix (as written, leading zeros significant) → owner; later lines win
+    private static Map<String, String> read(File file) throws IOException {
+        Map<String, String> prefixes = new HashMap<>();
+        Map<String, String> names = new HashMap<>(); // one String per distinct owner
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int sep = line.indexOf('\t');
+                if (sep < 0) sep = line.indexOf(',');
+                if (sep <= 0) continue;
+                String prefix = line.substring(0, sep).trim();
+                String owner = unquote(line.substring(sep + 1).trim());
+                if (!isPrefix(prefix) || owner.isEmpty()) continue;
+                prefixes.put(prefix, names.computeIfAbsent(owner, o -> o));
+            }
+        }
+        return prefixes;
+    }
+
+    private static boolean isPrefix(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > MAX_PREFIX_DIGITS) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+            return s.substring(1, s.length() - 1).replace("\"\"", "\"").trim();
+        }
+        return s;
+    }
+
+    Gs1Prefixes(Map<String, String> prefixes) {
+        int n = prefixes.size();
+        Range[] ranges = new Range[n];
+        int i = 0;
+        for (Map.Entry<String, String> e : prefixes.entrySet()) {
+            String prefix = e.getKey();
+            long span = 1;
+            for (int d = prefix.length(); d < 13; d++) span *= 10;
+            long start = Long.parseLong(prefix) * span;
+            ranges[i++] = new Range(start, start + span - 1, e.getValue());
+        }
+        // Outer ranges first on equal starts, so nesting can be tracked with a stack
+        Arrays.sort(ranges, (a, b) -> a.start != b.start ? Long.compare(a.start, b.start) : Long.compare(b.end, a.end));
+
+        starts = new long[n];
+        ends = new long[n];
+        parents = new int[n];
+        owners = new String[n];
+        int[] open = new int[MAX_PREFIX_DIGITS + 1]; // enclosing ranges, outermost first
+        int depth = 0;
+        for (i = 0; i < n; i++) {
+            starts[i] = ranges[i].start;
+            ends[i] = ranges[i].end;
+            owners[i] = ranges[i].owner;
+            while (depth > 0 && ends[open[depth - 1]] < starts[i]) depth--;
+            parents[i] = depth > 0 ? open[depth - 1] : -1;
+            open[depth++] = i;
+        }
+    }
+
+    private static final class Range {
+        final long start;
+        final long end;
+        final String owner;
+
+        Range(long start, long end, String owner) {
+            this.start = start;
+            this.end = end;
+            this.owner = owner;
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. LOOKUP
+    // ---------------------------------------------------------
+    // Brand owner for a GTIN (as returned by Gtin.parse), or null when no prefix covers it
+    public String owner(long gtin) {
+        if (gtin < 0) return null;
+        long key = Gtin.gtin13(gtin);
+
+        // Last range starting at or before the key; if it ends first, one of its parents may still cover it
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= key) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        for (int i = hi; i >= 0; i = parents[i]) {
+            if (ends[i] >= key) return owners[i];
+        }
+        return null;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    // ---------------------------------------------------------
+    // 3. IMPORT
+    // ---------------------------------------------------------
+    // Validates and de-duplicates a prefix list into the table file (replaced atomically)
+    public static int importList(File source, File target) throws IOException {
+        Map<String, String> prefixes = new TreeMap<>(read(source));
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(target.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> e : prefixes.entrySet()) {
+                out.write(e.getKey() + '\t' + e.getValue().replace('\t', ' ') + '\n');
+            }
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return prefixes.size();
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("import")) {
+            long start = System.nanoTime();
+            int count = importList(new File(args[1]), defaultFile());
+            System.out.printf(Locale.ROOT, "Imported %d prefixes into %s in %.1f s%n", count, defaultFile(),
+                    (System.nanoTime() - start) / 1e9);
+        } else if (args.length == 2 && args[0].equals("lookup")) {
+            Gs1Prefixes table = shared();
+            long gtin = Gtin.parse(args[1]);
+            if (gtin == Gtin.INVALID) {
+                System.out.println(args[1] + ": not a valid EAN/UPC/GTIN");
+            } else if (table == null) {
+                System.out.println("No prefix table; run: Gs1Prefixes import <prefixes.tsv>");
+            } else {
+                long begin = System.nanoTime();
+                String owner = table.owner(gtin);
+                long took = System.nanoTime() - begin;
+                System.out.printf(Locale.ROOT, "%014d -> %s (%d ns)%n", gtin, owner, took);
+            }
+        } else {
+            System.err.println("Usage: Gs1Prefixes import <prefixes.tsv|prefixes.csv> | lookup <barcode>");
+            System.exit(1);
+        }
+    }
+}
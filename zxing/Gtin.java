@@ -0,0 +1,70 @@
+import com.google.zxing.oned.UPCEReader;
+
+/**
+ * GTIN normalisation for retail barcodes.
+ *
+ * EAN-8, UPC-E, UPC-A, EAN-13 and GTIN-14 all become one primitive long, the code's GTIN-14
+ * value, so "036000291452" (UPC-A) and "0036000291452" (EAN-13) are the same key. UPC-E is
+ * expanded to its UPC-A form first. The check digit is validated, so a misread or a non-retail
+ * code (QR text, Code 128 serials) is rejected before it costs a lookup.
+ *
+ * The text alone can't tell an 8-digit UPC-E from an EAN-8: a code starting with 0 or 1 whose
+ * UPC-E check digit holds is read as UPC-E (the GS1-8 range there is mostly restricted
+ * circulation), any other 8-digit code as EAN-8.
+ */
+public final class Gtin {
+
+    public static final long INVALID = -1;
+
+    // GTIN-13 key space: the company prefix of an EAN-13 starts at its first digit
+    static final long GTIN13_LIMIT = 10_000_000_000_000L;
+
+    private Gtin() {
+    }
+
+    // GTIN-14 value of a retail barcode, or INVALID (bad length, non-digits, wrong check digit)
+    public static long parse(String barcode) {
+        if (barcode == null) return INVALID;
+        String code = barcode.trim();
+        int length = code.length();
+        if (length == 8 && (code.charAt(0) == '0' || code.charAt(0) == '1')) {
+            long upcA = digits(UPCEReader.convertUPCEtoUPCA(code));
+            if (upcA != INVALID && checkDigitValid(upcA)) return upcA;
+        }
+        if (length != 8 && length != 12 && length != 13 && length != 14) return INVALID;
+        long value = digits(code);
+        return value != INVALID && checkDigitValid(value) ? value : INVALID;
+    }
+
+    // Mod-10 check with weights 3, 1, 3, ... from the digit left of the check digit. Leading
+    // zeros weigh nothing, so the same test covers every GTIN length.
+    static boolean checkDigitValid(long gtin) {
+        return checkDigit(gtin / 10) == gtin % 10;
+    }
+
+    // Check digit to append to a GTIN body (the code without its last digit)
+    static int checkDigit(long body) {
+        int sum = 0;
+        for (int weight = 3; body > 0; weight = 4 - weight) {
+            sum += (int) (body % 10) * weight;
+            body /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    // The code as an EAN-13 (the GTIN-14 packaging indicator dropped), for company prefix lookups
+    static long gtin13(long gtin) {
+        return gtin % GTIN13_LIMIT;
+    }
+
+    private static long digits(String code) {
+        if (code.isEmpty()) return INVALID;
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') return INVALID;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
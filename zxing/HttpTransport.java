@@ -0,0 +1,209 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single HTTP transport for every lookup.
+ *
+ * - One java.net.http.HttpClient, created on first request: keep-alive connection pool, HTTP/2
+ *   where the server offers it.
+ * - One ObjectMapper (thread-safe once configured).
+ * - The timeout bounds the whole exchange, body included: HttpRequest.timeout alone stops
+ *   counting once the headers arrive, so a stalled body would hang every coalesced caller.
+ *   Bodies are still parsed as they stream in; on timeout the body stream is closed.
+ * - Request coalescing: concurrent GETs of the same URL with the same parser share one network
+ *   call and one parsed result, so a batch that hits the same barcode many times costs one request.
+ * - Optional UpstreamGuard per call for rate limits, retries, hedging and circuit breaking.
+ */
+public final class HttpTransport {
+
+    public static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String USER_AGENT = "Mozilla/5.0";
+
+    // Built on first request, not when JSON is first used: the client starts a selector
+    // thread and loads the TLS stack, which offline parsing and startup don't need
+    private static final class Client {
+        static final HttpClient INSTANCE = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    // Turns a response body into a value. Use a shared constant per call site: coalescing
+    // only merges requests whose URL and parser instance are both equal.
+    @FunctionalInterface
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    // Non-2xx response
+    public static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        HttpStatusException(String url, int status) {
+            super("HTTP " + status + " for " + url);
+            this.status = status;
+        }
+    }
+
+    private static final class Key {
+        final String url;
+        final BodyParser<?> parser;
+
+        Key(String url, BodyParser<?> parser) {
+            this.url = url;
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).url.equals(url) && ((Key) o).parser == parser;
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + System.identityHashCode(parser);
+        }
+    }
+
+    private static final ConcurrentHashMap<Key, CompletableFuture<Object>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private HttpTransport() {
+    }
+
+    // ---------------------------------------------------------
+    // 1. ASYNC GET (coalesced)
+    // ---------------------------------------------------------
+    public static <T> CompletableFuture<T> getAsync(String url, Duration timeout, BodyParser<T> parser) {
+        return getAsync(url, timeout, parser, null);
+    }
+
+    // Same, with rate limiting / retries / hedging / circuit breaking from the guard. Coalescing
+    // stays outside the guard: followers share one guarded call, hedges and retries are real requests.
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> getAsync(String url, Duration timeout, BodyParser<T> parser,
+                                                    UpstreamGuard guard) {
+        // Built before joining IN_FLIGHT: a malformed URL must fail this caller, not park followers
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept-Encoding", "identity")
+                .GET()
+                .build();
+
+        Key key = new Key(url, parser);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = IN_FLIGHT.putIfAbsent(key, mine);
+        // Each caller gets its own copy: cancelling or completing it must not touch the others
+        if (existing != null) {
+            return (CompletableFuture<T>) existing.copy();
+        }
+
+        try {
+            CompletableFuture<Object> call = guard != null
+                    ? guard.execute(() -> send(request, timeout, parser))
+                    : send(request, timeout, parser);
+            call.whenComplete((value, error) -> {
+                // Remove first so callers arriving after completion start a fresh request
+                IN_FLIGHT.remove(key, mine);
+                if (error != null) mine.completeExceptionally(unwrap(error));
+                else mine.complete(value);
+            });
+        } catch (RuntimeException e) {
+            IN_FLIGHT.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+
+        return (CompletableFuture<T>) mine.copy();
+    }
+
+    private static CompletableFuture<Object> send(HttpRequest request, Duration timeout, BodyParser<?> parser) {
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                Client.INSTANCE.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        // Parsed straight from the response stream, on the client's executor
+        CompletableFuture<Object> parsed = exchange.thenApply(response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() / 100 != 2) {
+                    throw new HttpStatusException(request.uri().toString(), response.statusCode());
+                }
+                return (Object) parser.parse(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return parsed.copy()
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((value, error) -> {
+                    if (error == null) return value;
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof TimeoutException) {
+                        abort(exchange);
+                        // An IOException, so UpstreamGuard retries it and counts it as a fault
+                        cause = new HttpTimeoutException("Timed out after " + timeout.toMillis()
+                                + " ms: " + request.uri());
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    // Stops a timed-out exchange: before the headers, cancelling it aborts the request; after
+    // them, closing the body makes a parse blocked on a stalled read fail and free its thread.
+    private static void abort(CompletableFuture<HttpResponse<InputStream>> exchange) {
+        if (exchange.cancel(true)) return;
+        HttpResponse<InputStream> response = exchange.getNow(null);
+        if (response == null) return;
+        try {
+            response.body().close();
+        } catch (IOException ignored) {
+            // already failing
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. BLOCKING GET
+    // ---------------------------------------------------------
+    public static <T> T get(String url, Duration timeout, BodyParser<T> parser) throws IOException {
+        return get(url, timeout, parser, null);
+    }
+
+    public static <T> T get(String url, Duration timeout, BodyParser<T> parser, UpstreamGuard guard)
+            throws IOException {
+        try {
+            return getAsync(url, timeout, parser, guard).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted: " + url, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof UncheckedIOException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
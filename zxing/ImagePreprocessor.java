@@ -0,0 +1,391 @@
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Pre-decode stage for large photos.
+ *
+ * 1. Read the encoded bytes in place (memory-mapped file or ByteBuffer), subsampling while
+ *    decoding (ImageReadParam.setSourceSubsampling) into a reused per-thread BufferedImage,
+ *    so a 12 MP phone photo never materialises at full size and steady scanning allocates
+ *    no pixel memory.
+ * 2. Convert straight into a per-thread (or pooled) reusable grayscale byte[] and hand it to
+ *    ZXing via PlanarYUVLuminanceSource (the Y plane is the luminance; nothing is copied again).
+ * 3. Try a crop around the strongest bar-like region first.
+ * 4. Fall back to the whole frame (DecodeRace: fast pass, then racing strategies), and to full
+ *    resolution only if the subsampled image fails.
+ *
+ * Tuning: -Dpreprocess.maxDimension=1600 (0 = never subsample), -Dpreprocess.roi=true
+ */
+public final class ImagePreprocessor {
+
+    static final int MAX_DIMENSION = Integer.getInteger("preprocess.maxDimension", 1600);
+    static final boolean ROI_ENABLED = Boolean.parseBoolean(System.getProperty("preprocess.roi", "true"));
+
+    // Grayscale pixels of the last image read on this thread. Sources built over it are only
+    // valid until the same thread reads the next image. Like DECODE_TARGET, only images up to
+    // MAX_REUSED_PIXELS are kept, so a full-resolution retry doesn't stay pinned on the thread.
+    private static final ThreadLocal<byte[]> GRAY_BUFFER = ThreadLocal.withInitial(() -> new byte[0]);
+    private static final ThreadLocal<int[]> ROW_BUFFER = ThreadLocal.withInitial(() -> new int[0]);
+    // Decoded image of the last read on this thread, reused as the next read's destination
+    private static final ThreadLocal<BufferedImage> DECODE_TARGET = new ThreadLocal<>();
+    private static final long MAX_REUSED_PIXELS = 4_000_000;
+
+    private ImagePreprocessor() {
+    }
+
+    // Grayscale view of an image (pixels usually live in the per-thread buffer)
+    static final class GrayImage {
+        final byte[] pixels;
+        final int width;
+        final int height;
+        final int subsampling;
+
+        GrayImage(byte[] pixels, int width, int height, int subsampling) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.subsampling = subsampling;
+        }
+
+        LuminanceSource source() {
+            return new PlanarYUVLuminanceSource(pixels, width, height, 0, 0, width, height, false);
+        }
+
+        LuminanceSource crop(int[] box) {
+            return new PlanarYUVLuminanceSource(pixels, width, height, box[0], box[1], box[2], box[3], false);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 1. DECODE WITH PRE-PROCESSING
+    // ---------------------------------------------------------
+    public static Result decode(File file, BarcodeDecoder.Profile profile) throws IOException {
+        GrayImage image = read(file, MAX_DIMENSION);
+        if (image == null) return null; // not an image ImageIO understands
+
+        if (ROI_ENABLED) {
+            long start = System.nanoTime();
+            int[] box = findBarcodeRegion(image);
+            ScanMetrics.record(ScanMetrics.Stage.ROI, System.nanoTime() - start);
+            if (box != null) {
+                Result result = BarcodeDecoder.decodeFast(image.crop(box), profile);
+                if (result != null) return result;
+            }
+        }
+
+        // Plain fast pass, then (only if that fails) the strategy race
+        Result result = DecodeRace.decode(image.source(), profile);
+        if (result == null && image.subsampling > 1) {
+            // Fine detail may have been lost by subsampling: one retry at full resolution
+            GrayImage full = read(file, 0);
+            result = DecodeRace.decode(full.source(), profile);
+        }
+        return result;
+    }
+
+    // Whole-frame luminance (no ROI), e.g. for multi-barcode decoding
+    public static LuminanceSource luminance(File file, int maxDimension) throws IOException {
+        return luminance(file, maxDimension, null);
+    }
+
+    // Same, also showing the decoded image to onDecoded (e.g. to make a preview from the same
+    // read). The image is only valid during the callback: its pixels are reused afterwards.
+    public static LuminanceSource luminance(File file, int maxDimension, Consumer<BufferedImage> onDecoded)
+            throws IOException {
+        GrayImage image = read(file, maxDimension, onDecoded);
+        return image != null ? image.source() : null;
+    }
+
+    // Same for an encoded image already in memory (an upload, a mapped file, a video frame)
+    public static LuminanceSource luminance(ByteBuffer encoded, int maxDimension) throws IOException {
+        GrayImage image = read(encoded, maxDimension, null);
+        return image != null ? image.source() : null;
+    }
+
+    // ---------------------------------------------------------
+    // 2. SUBSAMPLED READ → GRAYSCALE BUFFER
+    // ---------------------------------------------------------
+    // Files are memory-mapped: the image reader parses the page cache directly instead of
+    // copying the file through stream buffers.
+    static GrayImage read(File file, int maxDimension) throws IOException {
+        return read(file, maxDimension, null);
+    }
+
+    static GrayImage read(File file, int maxDimension, Consumer<BufferedImage> onDecoded) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(mapped, maxDimension, null, onDecoded);
+        }
+    }
+
+    // Grayscale goes into the per-thread buffer, or into one from pool when the image must
+    // outlive this thread's next read
+    static GrayImage read(ByteBuffer encoded, int maxDimension, BufferPool pool) throws IOException {
+        return read(encoded, maxDimension, pool, null);
+    }
+
+    private static GrayImage read(ByteBuffer encoded, int maxDimension, BufferPool pool,
+                                  Consumer<BufferedImage> onDecoded) throws IOException {
+        try (ImageInputStream in = new ByteBufferImageInputStream(encoded)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = maxDimension > 0 ? Math.max(1, (longest + maxDimension - 1) / maxDimension) : 1;
+                int width = (reader.getWidth(0) + subsampling - 1) / subsampling;
+                int height = (reader.getHeight(0) + subsampling - 1) / subsampling;
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage target = decodeTarget(reader, width, height);
+                if (target != null) param.setDestination(target);
+
+                long start = System.nanoTime();
+                BufferedImage decoded = reader.read(0, param);
+                long read = System.nanoTime();
+                if (onDecoded != null) {
+                    // A reused decode target can be larger than this image
+                    onDecoded.accept(decoded.getWidth() == width && decoded.getHeight() == height
+                            ? decoded
+                            : decoded.getSubimage(0, 0, width, height));
+                }
+                byte[] gray = pool != null ? pool.acquire(width * height) : buffer(GRAY_BUFFER, width * height);
+                GrayImage image = toGray(decoded, width, height, subsampling, gray);
+                ScanMetrics.record(ScanMetrics.Stage.IMAGE_READ, read - start);
+                ScanMetrics.record(ScanMetrics.Stage.LUMINANCE, System.nanoTime() - read);
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Reuses this thread's last decoded BufferedImage as the reader's destination, growing it
+    // when needed. Only for standard pixel layouts (a palette would carry over between images)
+    // and bounded sizes (a full-resolution retry should not pin a huge image).
+    private static BufferedImage decodeTarget(ImageReader reader, int width, int height) throws IOException {
+        if ((long) width * height > MAX_REUSED_PIXELS) return null;
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) return null;
+        ImageTypeSpecifier type = types.next();
+        int bufferedType = type.getBufferedImageType();
+        if (bufferedType == BufferedImage.TYPE_CUSTOM
+                || bufferedType == BufferedImage.TYPE_BYTE_INDEXED
+                || bufferedType == BufferedImage.TYPE_BYTE_BINARY) {
+            return null;
+        }
+
+        BufferedImage cached = DECODE_TARGET.get();
+        if (cached != null && cached.getType() == bufferedType
+                && cached.getWidth() >= width && cached.getHeight() >= height) {
+            return cached;
+        }
+        int w = width;
+        int h = height;
+        if (cached != null && cached.getType() == bufferedType) {
+            w = Math.max(w, cached.getWidth());
+            h = Math.max(h, cached.getHeight());
+            if ((long) w * h > MAX_REUSED_PIXELS) {
+                w = width;
+                h = height;
+            }
+        }
+        BufferedImage created = type.createBufferedImage(w, h);
+        DECODE_TARGET.set(created);
+        return created;
+    }
+
+    // Converts the top-left width x height pixels (the image may be a larger, reused decode
+    // target) into gray, which must hold at least width * height bytes
+    static GrayImage toGray(BufferedImage image, int width, int height, int subsampling, byte[] gray) {
+        if (toGrayFromRaster(image, width, height, gray)) {
+            return new GrayImage(gray, width, height, subsampling);
+        }
+
+        int[] row = ROW_BUFFER.get();
+        if (row.length < width) {
+            row = new int[width];
+            if ((long) width * height <= MAX_REUSED_PIXELS) ROW_BUFFER.set(row);
+        }
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                if ((argb >>> 24) == 0) {
+                    gray[offset + x] = (byte) 0xFF; // transparent → white, as BufferedImageLuminanceSource does
+                } else {
+                    // (R + 2G + B) / 4, same weighting as ZXing's luminance sources
+                    int r = (argb >> 16) & 0xFF;
+                    int g = (argb >> 8) & 0xFF;
+                    int b = argb & 0xFF;
+                    gray[offset + x] = (byte) ((r + 2 * g + b) >> 2);
+                }
+            }
+        }
+        return new GrayImage(gray, width, height, subsampling);
+    }
+
+    // Straight from the raster bytes for the layouts JPEG and PNG readers usually produce;
+    // same result as the getRGB path. False if the layout isn't one of them.
+    private static boolean toGrayFromRaster(BufferedImage image, int width, int height, byte[] gray) {
+        int type = image.getType();
+        int channels = type == BufferedImage.TYPE_BYTE_GRAY ? 1
+                : type == BufferedImage.TYPE_3BYTE_BGR ? 3
+                : type == BufferedImage.TYPE_4BYTE_ABGR ? 4
+                : 0;
+        WritableRaster raster = image.getRaster();
+        if (channels == 0 || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+        byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = image.getWidth() * channels;
+        if (src.length < stride * image.getHeight()) return false;
+
+        for (int y = 0; y < height; y++) {
+            int in = y * stride;
+            int out = y * width;
+            if (channels == 1) {
+                System.arraycopy(src, in, gray, out, width);
+            } else if (channels == 3) {
+                for (int x = 0; x < width; x++, in += 3) {
+                    int b = src[in] & 0xFF;
+                    int g = src[in + 1] & 0xFF;
+                    int r = src[in + 2] & 0xFF;
+                    gray[out + x] = (byte) ((r + 2 * g + b) >> 2);
+                }
+            } else {
+                for (int x = 0; x < width; x++, in += 4) {
+                    if (src[in] == 0) {
+                        gray[out + x] = (byte) 0xFF;
+                        continue;
+                    }
+                    int b = src[in + 1] & 0xFF;
+                    int g = src[in + 2] & 0xFF;
+                    int r = src[in + 3] & 0xFF;
+                    gray[out + x] = (byte) ((r + 2 * g + b) >> 2);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Oversized requests get a one-off array instead of growing the thread's buffer
+    private static byte[] buffer(ThreadLocal<byte[]> holder, int size) {
+        byte[] buf = holder.get();
+        if (buf.length < size) {
+            buf = new byte[size];
+            if (size <= MAX_REUSED_PIXELS) holder.set(buf);
+        }
+        return buf;
+    }
+
+    // Bounded free list of grayscale buffers for images that outlive the reading thread's
+    // next read, e.g. video frames waiting in a queue. Extra or too-small buffers go to the GC.
+    static final class BufferPool {
+        private final ArrayBlockingQueue<byte[]> free;
+
+        BufferPool(int capacity) {
+            this.free = new ArrayBlockingQueue<>(capacity);
+        }
+
+        byte[] acquire(int size) {
+            byte[] buf;
+            while ((buf = free.poll()) != null) {
+                if (buf.length >= size) return buf;
+            }
+            return new byte[size];
+        }
+
+        void release(byte[] buf) {
+            free.offer(buf);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 3. REGION OF INTEREST
+    // ---------------------------------------------------------
+    // A 1D barcode is the place with the most horizontal light/dark transitions. Score each
+    // row by its horizontal gradient, keep the band of rows around the best one, then trim
+    // columns the same way. Returns {left, top, width, height} or null if nothing stands out.
+    static int[] findBarcodeRegion(GrayImage image) {
+        int w = image.width;
+        int h = image.height;
+        if (w < 64 || h < 32) return null;
+
+        byte[] px = image.pixels;
+        long[] rowEnergy = new long[h];
+        long best = 0;
+        int bestRow = 0;
+        for (int y = 0; y < h; y++) {
+            int offset = y * w;
+            long sum = 0;
+            for (int x = 1; x < w; x++) {
+                sum += Math.abs((px[offset + x] & 0xFF) - (px[offset + x - 1] & 0xFF));
+            }
+            rowEnergy[y] = sum;
+            if (sum > best) {
+                best = sum;
+                bestRow = y;
+            }
+        }
+        if (best == 0) return null;
+
+        long threshold = best / 3;
+        int top = bestRow;
+        int bottom = bestRow;
+        while (top > 0 && rowEnergy[top - 1] >= threshold) top--;
+        while (bottom < h - 1 && rowEnergy[bottom + 1] >= threshold) bottom++;
+
+        long[] colEnergy = new long[w];
+        long bestCol = 0;
+        for (int y = top; y <= bottom; y++) {
+            int offset = y * w;
+            for (int x = 1; x < w; x++) {
+                colEnergy[x] += Math.abs((px[offset + x] & 0xFF) - (px[offset + x - 1] & 0xFF));
+            }
+        }
+        for (long e : colEnergy) bestCol = Math.max(bestCol, e);
+        long colThreshold = bestCol / 8;
+        int left = 0;
+        int right = w - 1;
+        while (left < right && colEnergy[left] < colThreshold) left++;
+        while (right > left && colEnergy[right] < colThreshold) right--;
+
+        // Pad generously: quiet zones and the guard bars must stay inside the crop
+        int padX = Math.max(16, (right - left) / 10);
+        int padY = Math.max(16, (bottom - top) / 2);
+        left = Math.max(0, left - padX);
+        right = Math.min(w - 1, right + padX);
+        top = Math.max(0, top - padY);
+        bottom = Math.min(h - 1, bottom + padY);
+
+        int cropW = right - left + 1;
+        int cropH = bottom - top + 1;
+        // Not worth it when the crop is nearly the whole frame
+        if ((long) cropW * cropH > (long) w * h * 3 / 4) return null;
+        return new int[] {left, top, cropW, cropH};
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * LoadDriver.java
+ *
+ * Sustained load through the scan pipeline, replaying a CorpusGenerator corpus.
+ *
+ * - Open loop (--rate N): scans start on a fixed schedule whether or not earlier ones have
+ *   finished, like independent users. Latency counts from the scheduled start, so time spent
+ *   queued behind a saturated pipeline shows up in the percentiles instead of hiding in a
+ *   slower request rate.
+ * - Closed loop (no --rate): a fixed number of scans in flight, as fast as they complete;
+ *   the throughput ceiling for the machine.
+ * - Images are read into memory first, so disk speed doesn't count; each scan decodes the
+ *   encoded bytes (BarcodeDecoder.decodeAll), then with --lookup runs the app's lookups
+ *   (OpenFoodFacts, manufacturer, EthicalConsumer) on a separate I/O pool.
+ *
+ * Reports throughput, latency percentiles and decode accuracy (correct / wrong text / nothing
+ * found) per distortion level. Results from the first --warmup seconds are discarded.
+ *
+ * Usage:
+ * java -cp "..." LoadDriver <corpusDir> [--rate N] [--duration S] [--warmup S] [--threads N] [--lookup] [--profile retail+qr]
+ *
+ *   --rate      scans started per second (default: closed loop)
+ *   --duration  measured seconds (default 30)
+ *   --warmup    unmeasured seconds before that (default 5)
+ *   --threads   decode workers (default: number of cores); closed loop keeps twice as many scans in flight
+ *   --lookup    also run the lookups; they use a fresh cache in a temp directory unless
+ *               -DlookupCache.dir=... is given, so the persistent cache doesn't turn them into hits
+ */
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public final class LoadDriver {
+
+    private static final Set<BarcodeFormat> RETAIL_FORMATS =
+            EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.UPC_A, BarcodeFormat.EAN_8, BarcodeFormat.UPC_E);
+
+    // One corpus image, held encoded in memory
+    static final class Sample {
+        final String file;
+        final BarcodeFormat format;
+        final String text;
+        final int level;
+        final byte[] encoded;
+
+        Sample(String file, BarcodeFormat format, String text, int level, byte[] encoded) {
+            this.file = file;
+            this.format = format;
+            this.text = text;
+            this.level = level;
+            this.encoded = encoded;
+        }
+    }
+
+    // Counters and latency for one distortion level (or all of them)
+    static final class Stats {
+        final LongAdder correct = new LongAdder();
+        final LongAdder wrong = new LongAdder();
+        final LongAdder missed = new LongAdder();
+        final ScanMetrics.LatencyHistogram latency = new ScanMetrics.LatencyHistogram();
+    }
+
+    private final List<Sample> samples;
+    private final BarcodeDecoder.Profile profile;
+    private final boolean lookup;
+    private final ExecutorService decodePool;
+    private final ExecutorService lookupPool;
+    private final int inFlightLimit;
+
+    private final Stats[] byLevel = new Stats[CorpusGenerator.LEVELS.length];
+    private final Stats total = new Stats();
+    private final ScanMetrics.LatencyHistogram decodeTime = new ScanMetrics.LatencyHistogram();
+    private final ScanMetrics.LatencyHistogram lookupTime = new ScanMetrics.LatencyHistogram();
+    private final AtomicLong next = new AtomicLong();
+
+    public LoadDriver(List<Sample> samples, BarcodeDecoder.Profile profile, boolean lookup, int threads) {
+        this.samples = samples;
+        this.profile = profile;
+        this.lookup = lookup;
+        for (int i = 0; i < byLevel.length; i++) byLevel[i] = new Stats();
+
+        // Unbounded queue on purpose: in open loop a backlog must turn into measured latency,
+        // not into rejected or caller-run scans
+        this.decodePool = Executors.newFixedThreadPool(threads, daemonFactory("load-decode"));
+        this.lookupPool = lookup ? Executors.newFixedThreadPool(threads * 4, daemonFactory("load-lookup")) : null;
+        this.inFlightLimit = (lookup ? threads * 4 : threads) * 2;
+    }
+
+    // ---------------------------------------------------------
+    // 1. CORPUS
+    // ---------------------------------------------------------
+    // labels.csv rows (file,format,text,level,...) with their images read into memory
+    static List<Sample> loadCorpus(File dir) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        File labels = new File(dir, CorpusGenerator.LABELS_FILE);
+        try (BufferedReader in = Files.newBufferedReader(labels.toPath(), StandardCharsets.UTF_8)) {
+            in.readLine(); // header
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(",", -1);
+                if (f.length < 4) continue;
+                File image = new File(dir, f[0]);
+                if (!image.isFile()) continue;
+                samples.add(new Sample(f[0], BarcodeFormat.valueOf(f[1]), f[2], Integer.parseInt(f[3]),
+                        Files.readAllBytes(image.toPath())));
+            }
+        }
+        return samples;
+    }
+
+    // ---------------------------------------------------------
+    // 2. ONE SCAN
+    // ---------------------------------------------------------
+    // measured: started after the warm-up, so its outcome and timings count
+    private CompletableFuture<Void> scan(Sample sample, long scheduledNanos, boolean measured) {
+        return CompletableFuture
+                .supplyAsync(() -> decode(sample, measured), decodePool)
+                .thenCompose(barcode -> lookup && barcode != null
+                        ? CompletableFuture.runAsync(() -> lookup(barcode, measured), lookupPool)
+                        : CompletableFuture.completedFuture(null))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) error.printStackTrace();
+                    if (measured) {
+                        long micros = (System.nanoTime() - scheduledNanos) / 1000;
+                        byLevel[sample.level].latency.record(micros);
+                        total.latency.record(micros);
+                    }
+                });
+    }
+
+    // The decoded text matching the label, or null. Counts the outcome.
+    private String decode(Sample sample, boolean measured) {
+        long start = System.nanoTime();
+        List<Result> results = BarcodeDecoder.decodeAll(sample.encoded, profile);
+        if (measured) decodeTime.record((System.nanoTime() - start) / 1000);
+
+        String match = null;
+        for (Result result : results) {
+            if (matches(sample, result)) {
+                match = result.getText();
+                break;
+            }
+        }
+        if (measured) {
+            count(byLevel[sample.level], match != null, results.isEmpty());
+            count(total, match != null, results.isEmpty());
+        }
+        return match;
+    }
+
+    private static void count(Stats stats, boolean correct, boolean nothingFound) {
+        (correct ? stats.correct : nothingFound ? stats.missed : stats.wrong).increment();
+    }
+
+    // Retail codes compare as GTINs (a UPC-A may come back as its EAN-13 form), the rest as text
+    private static boolean matches(Sample sample, Result result) {
+        if (RETAIL_FORMATS.contains(sample.format) && RETAIL_FORMATS.contains(result.getBarcodeFormat())) {
+            long expected = Gtin.parse(sample.text);
+            return expected != Gtin.INVALID && expected == Gtin.parse(result.getText());
+        }
+        return sample.format == result.getBarcodeFormat() && sample.text.equals(result.getText());
+    }
+
+    // Same lookups as a scan in the app
+    private void lookup(String barcode, boolean measured) {
+        long start = System.nanoTime();
+        ProductLookups.getOpenFoodFactsInfo(barcode);
+        String manufacturer = ProductLookups.searchManufacturerByBarcode(barcode);
+        if (manufacturer != null) ProductLookups.searchEthicalConsumerTopHit(manufacturer);
+        if (measured) lookupTime.record((System.nanoTime() - start) / 1000);
+    }
+
+    private Sample nextSample() {
+        return samples.get((int) (next.getAndIncrement() % samples.size()));
+    }
+
+    // ---------------------------------------------------------
+    // 3. LOAD (open or closed loop)
+    // ---------------------------------------------------------
+    // rate <= 0: closed loop. Returns the measured seconds.
+    public double run(double rate, double warmupSeconds, double durationSeconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + (long) (warmupSeconds * 1e9);
+        long end = measureFrom + (long) (durationSeconds * 1e9);
+        boolean closedLoop = rate <= 0;
+        Semaphore inFlight = new Semaphore(inFlightLimit);
+        List<CompletableFuture<Void>> measured = new ArrayList<>();
+
+        long period = closedLoop ? 0 : (long) (1e9 / rate);
+        for (long i = 0; ; i++) {
+            long scheduled;
+            long now;
+            if (closedLoop) {
+                inFlight.acquire();
+                scheduled = now = System.nanoTime();
+            } else {
+                scheduled = start + i * period;
+                while ((now = System.nanoTime()) < scheduled) LockSupport.parkNanos(scheduled - now);
+            }
+            if (now >= end) break;
+
+            boolean measure = scheduled >= measureFrom;
+            CompletableFuture<Void> scan = scan(nextSample(), scheduled, measure);
+            if (closedLoop) scan.whenComplete((v, e) -> inFlight.release());
+            if (measure) measured.add(scan);
+        }
+
+        // Scans started inside the window still count when they finish after it
+        CompletableFuture.allOf(measured.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - measureFrom) / 1e9;
+        decodePool.shutdown();
+        if (lookupPool != null) lookupPool.shutdown();
+        decodePool.awaitTermination(30, TimeUnit.SECONDS);
+        return seconds;
+    }
+
+    // ---------------------------------------------------------
+    // 4. REPORT
+    // ---------------------------------------------------------
+    public void report(double seconds, double rate) {
+        long scans = total.latency.count();
+        System.out.printf(Locale.ROOT, "%d scans in %.1f s: %.1f/s%s%n", scans, seconds, scans / seconds,
+                rate > 0 ? String.format(Locale.ROOT, " (target %.1f/s)", rate) : " (closed loop)");
+        System.out.printf("%-8s %7s %8s %6s %7s %9s %8s %8s %8s %8s%n",
+                "level", "scans", "correct", "wrong", "missed", "accuracy", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (int i = 0; i < byLevel.length; i++) {
+            if (byLevel[i].latency.count() > 0) row(CorpusGenerator.LEVELS[i].name, byLevel[i]);
+        }
+        row("all", total);
+        System.out.printf(Locale.ROOT, "decode p50 %.1f ms, p99 %.1f ms%n",
+                decodeTime.valueAtQuantile(0.5) / 1e3, decodeTime.valueAtQuantile(0.99) / 1e3);
+        if (lookup) {
+            // The corpus repeats codes, so after the first pass most lookups are cache hits anyway
+            System.out.printf(Locale.ROOT, "lookups p50 %.1f ms, p99 %.1f ms (cache in %s)%n",
+                    lookupTime.valueAtQuantile(0.5) / 1e3, lookupTime.valueAtQuantile(0.99) / 1e3,
+                    System.getProperty("lookupCache.dir"));
+        }
+    }
+
+    private static void row(String name, Stats stats) {
+        long correct = stats.correct.sum();
+        long wrong = stats.wrong.sum();
+        long missed = stats.missed.sum();
+        long decoded = correct + wrong + missed;
+        System.out.printf(Locale.ROOT, "%-8s %7d %8d %6d %7d %8.1f%% %8.1f %8.1f %8.1f %8.1f%n",
+                name, stats.latency.count(), correct, wrong, missed, decoded == 0 ? 0 : 100.0 * correct / decoded,
+                stats.latency.valueAtQuantile(0.5) / 1e3, stats.latency.valueAtQuantile(0.9) / 1e3,
+                stats.latency.valueAtQuantile(0.99) / 1e3, stats.latency.valueAtQuantile(1.0) / 1e3);
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        File dir = null;
+        double rate = 0;
+        double duration = 30;
+        double warmup = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean lookup = false;
+        BarcodeDecoder.Profile profile = BarcodeDecoder.DEFAULT_PROFILE;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase(Locale.ROOT)) {
+                    case "--rate": rate = Double.parseDouble(args[++i]); break;
+                    case "--duration": duration = Double.parseDouble(args[++i]); break;
+                    case "--warmup": warmup = Double.parseDouble(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--lookup": lookup = true; break;
+                    case "--profile": profile = BarcodeDecoder.Profile.fromName(args[++i]); break;
+                    default: dir = new File(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        if (dir == null || !new File(dir, CorpusGenerator.LABELS_FILE).isFile() || duration <= 0) {
+            System.err.println("Usage: LoadDriver <corpusDir> [--rate N] [--duration S] [--warmup S] "
+                    + "[--threads N] [--lookup] [--profile retail+qr]");
+            System.exit(1);
+        }
+
+        List<Sample> samples = loadCorpus(dir);
+        if (samples.isEmpty()) {
+            System.err.println("No images listed in " + new File(dir, CorpusGenerator.LABELS_FILE));
+            System.exit(1);
+        }
+        // Start lookups from an empty cache, not whatever ~/.barcode-scanner already holds
+        if (lookup && System.getProperty("lookupCache.dir") == null) {
+            File cacheDir = Files.createTempDirectory("loaddriver-cache").toFile();
+            cacheDir.deleteOnExit();
+            new File(cacheDir, "lookup-cache.log").deleteOnExit();
+            new File(cacheDir, "lookup-cache.log.lock").deleteOnExit();
+            System.setProperty("lookupCache.dir", cacheDir.getPath());
+        }
+        // Shuffled once (seeded), so levels and formats interleave at any point of the run
+        Collections.shuffle(samples, new Random(1));
+
+        System.err.printf(Locale.ROOT, "Replaying %d images: %s, %.0f s warm-up + %.0f s, %d decode threads, "
+                        + "profile %s, lookups %s%n", samples.size(),
+                rate > 0 ? String.format(Locale.ROOT, "%.1f scans/s", rate) : "closed loop",
+                warmup, duration, threads, profile.label, lookup ? "on" : "off");
+        LoadDriver driver = new LoadDriver(samples, profile, lookup, Math.max(1, threads));
+        double seconds = driver.run(rate, warmup, duration);
+        driver.report(seconds, rate);
+    }
+}
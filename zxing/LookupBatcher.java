@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batching for APIs that accept several codes in one request.
+ *
+ * Each caller submits one key and gets a future. Keys collect for up to maxDelay, or until
+ * maxBatch are pending, then one request goes out for all of them and the response is split
+ * back onto each key's future. A key that is already pending shares the existing future.
+ * A lone caller waits at most maxDelay longer than it would have without batching.
+ *
+ * Tuning: -Dlookup.batchDelayMs=5, -Dlookup.batch=false (one request per key, no delay)
+ */
+final class LookupBatcher<T> {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("lookup.batch", "true"));
+    private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lookup.batchDelayMs", 5));
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lookup-batch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // One request for all keys. The map holds the value found for each requested key;
+    // a key missing from it means "not found". A loader that answers key by key records a
+    // key's own failure in failed, so only that key's caller sees it.
+    @FunctionalInterface
+    interface BatchLoader<T> {
+        CompletableFuture<Map<String, T>> load(List<String> keys, Map<String, Throwable> failed);
+    }
+
+    private final int maxBatch;
+    private final BatchLoader<T> loader;
+
+    // Guarded by this
+    private Map<String, CompletableFuture<T>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+
+    LookupBatcher(int maxBatch, BatchLoader<T> loader) {
+        this.maxBatch = ENABLED ? maxBatch : 1;
+        this.loader = loader;
+    }
+
+    // ---------------------------------------------------------
+    // 1. SUBMIT
+    // ---------------------------------------------------------
+    CompletableFuture<T> submit(String key) {
+        Map<String, CompletableFuture<T>> full = null;
+        CompletableFuture<T> future;
+        synchronized (this) {
+            future = pending.get(key);
+            if (future != null) return future;
+
+            future = new CompletableFuture<>();
+            pending.put(key, future);
+            if (pending.size() >= maxBatch) {
+                full = drain();
+            } else if (timer == null) {
+                timer = TIMER.schedule(this::flush, DELAY_NANOS, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) send(full);
+        return future;
+    }
+
+    // Blocking form, for LookupCache loaders
+    T get(String key) throws Exception {
+        try {
+            return submit(key).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. FLUSH + DEMULTIPLEX
+    // ---------------------------------------------------------
+    private void flush() {
+        Map<String, CompletableFuture<T>> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) send(batch);
+    }
+
+    private Map<String, CompletableFuture<T>> drain() {
+        Map<String, CompletableFuture<T>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return batch;
+    }
+
+    private void send(Map<String, CompletableFuture<T>> batch) {
+        Map<String, Throwable> failed = new ConcurrentHashMap<>();
+        CompletableFuture<Map<String, T>> response;
+        try {
+            response = loader.load(new ArrayList<>(batch.keySet()), failed);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((found, error) -> {
+            Throwable cause = error != null ? HttpTransport.unwrap(error) : null;
+            for (Map.Entry<String, CompletableFuture<T>> e : batch.entrySet()) {
+                Throwable own = failed.get(e.getKey());
+                if (cause != null) e.getValue().completeExceptionally(cause);
+                else if (own != null) e.getValue().completeExceptionally(HttpTransport.unwrap(own));
+                else e.getValue().complete(found.get(e.getKey()));
+            }
+        });
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache for lookup responses.
+ *
+ * Tier 1 is a bounded in-memory LRU. Tier 2 is an append-only log file on disk with an
+ * in-memory key → offset index, so entries survive restarts. Each source has its own
+ * TTL, and "not found" answers are cached too (with a shorter TTL) so unknown barcodes
+ * do not keep spending API quota. When a refresh fails (upstream down, circuit open), an
+ * expired entry up to STALE_GRACE old is served instead of an error.
+ *
+ * The GUI, BatchScanner and ScanServer share the default log, but only one process at a time
+ * uses it (enforced with a lock file next to it); the others run memory-only.
+ *
+ * Record layout: [int length][long expiresAtMillis][byte negative][short keyLen][key][value]
+ */
+public final class LookupCache {
+
+    // ---------------------------------------------------------
+    // 1. SOURCES + TTLs
+    // ---------------------------------------------------------
+    public enum Source {
+        OPEN_FOOD_FACTS("https://world.openfoodfacts.org", Duration.ofDays(1), Duration.ofHours(1)),
+        BARCODE_LOOKUP("https://api.barcodelookup.com", Duration.ofDays(7), Duration.ofHours(6)),
+        ETHICAL_CONSUMER("https://www.ethicalconsumer.org", Duration.ofDays(3), Duration.ofHours(12));
+
+        final String defaultBaseUrl;
+        // Where requests go; -Dupstream.<source>.baseUrl=... points a source elsewhere (e.g. a ReplayServer)
+        public final String baseUrl;
+        final long ttlMillis;
+        final long negativeTtlMillis;
+
+        Source(String defaultBaseUrl, Duration ttl, Duration negativeTtl) {
+            this.defaultBaseUrl = defaultBaseUrl;
+            this.baseUrl = System.getProperty("upstream." + name().toLowerCase(Locale.ROOT) + ".baseUrl", defaultBaseUrl);
+            this.ttlMillis = ttl.toMillis();
+            this.negativeTtlMillis = negativeTtl.toMillis();
+        }
+    }
+
+    // Loader for a cache miss. Returning null means "not found" and is cached negatively;
+    // throwing means the lookup failed and nothing is cached.
+    @FunctionalInterface
+    public interface Loader {
+        String load() throws Exception;
+    }
+
+    private static final int DEFAULT_MEMORY_ENTRIES = 10_000;
+
+    // How long past expiry an entry may still be served if the refresh fails
+    private static final long STALE_GRACE_MILLIS = Duration.ofDays(7).toMillis();
+
+    private static final class Entry {
+        final String value; // null = negative entry
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> memory;
+    private final Map<String, Long> diskIndex = new HashMap<>();
+    private final RandomAccessFile log;
+    private final FileChannel lockChannel; // held open for the process lifetime: closing it drops the lock
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private static volatile LookupCache shared;
+
+    // Process-wide cache stored under ~/.barcode-scanner (override with -DlookupCache.dir=...)
+    public static LookupCache shared() {
+        LookupCache cache = shared;
+        if (cache == null) {
+            synchronized (LookupCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    String dir = System.getProperty("lookupCache.dir",
+                            System.getProperty("user.home") + File.separator + ".barcode-scanner");
+                    shared = cache = new LookupCache(new File(dir, "lookup-cache.log"), DEFAULT_MEMORY_ENTRIES);
+                }
+            }
+        }
+        return cache;
+    }
+
+    // The shared cache if something already opened it (metrics must not create it)
+    static LookupCache current() {
+        return shared;
+    }
+
+    public LookupCache(File file, int memoryEntries) {
+        this.memory = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+
+        RandomAccessFile raf = null;
+        FileChannel lockFile = null;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) parent.mkdirs();
+            // Each process has its own offset index, so a second writer would corrupt it
+            lockFile = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock held;
+            try {
+                held = lockFile.tryLock();
+            } catch (OverlappingFileLockException e) {
+                held = null; // already open in this JVM
+            }
+            if (held == null) throw new IOException("Lookup cache in use by another process: " + file);
+            raf = new RandomAccessFile(file, "rw");
+            loadIndex(raf);
+        } catch (IOException e) {
+            // Disk tier is best effort; fall back to memory only
+            e.printStackTrace();
+            closeQuietly(raf);
+            closeQuietly(lockFile);
+            raf = null;
+            lockFile = null;
+        }
+        this.log = raf;
+        this.lockChannel = lockFile;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. LOOKUP
+    // ---------------------------------------------------------
+    public String get(Source source, String key, Loader loader) throws Exception {
+        String cacheKey = source.name() + '\0' + key.trim().toLowerCase(Locale.ROOT);
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(cacheKey);
+        }
+        if (entry != null && entry.expiresAt > now) {
+            memoryHits.incrementAndGet();
+            if (entry.value == null) negativeHits.incrementAndGet();
+            return entry.value;
+        }
+
+        entry = readDisk(cacheKey, now, false);
+        if (entry != null) {
+            diskHits.incrementAndGet();
+            if (entry.value == null) negativeHits.incrementAndGet();
+            synchronized (memory) {
+                memory.put(cacheKey, entry);
+            }
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        String value;
+        try {
+            value = loader.load();
+        } catch (Exception e) {
+            Entry stale = staleEntry(cacheKey, now);
+            if (stale == null) throw e;
+            staleHits.incrementAndGet();
+            return stale.value;
+        }
+        entry = new Entry(value, now + (value != null ? source.ttlMillis : source.negativeTtlMillis));
+        synchronized (memory) {
+            memory.put(cacheKey, entry);
+        }
+        writeDisk(cacheKey, entry);
+        return value;
+    }
+
+    // Expired (but within grace) entry from either tier, or null
+    private Entry staleEntry(String cacheKey, long now) {
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(cacheKey);
+        }
+        if (entry == null) entry = readDisk(cacheKey, now, true);
+        return entry != null && entry.expiresAt + STALE_GRACE_MILLIS > now ? entry : null;
+    }
+
+    public String stats() {
+        return String.format(Locale.ROOT, "memoryHits=%d diskHits=%d negativeHits=%d staleHits=%d misses=%d",
+                memoryHits.get(), diskHits.get(), negativeHits.get(), staleHits.get(), misses.get());
+    }
+
+    public Map<String, Long> counters() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        out.put("memory_hit", memoryHits.get());
+        out.put("disk_hit", diskHits.get());
+        out.put("negative_hit", negativeHits.get());
+        out.put("stale_hit", staleHits.get());
+        out.put("miss", misses.get());
+        return out;
+    }
+
+    public long hits() {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    // ---------------------------------------------------------
+    // 3. DISK TIER
+    // ---------------------------------------------------------
+    private void loadIndex(RandomAccessFile raf) throws IOException {
+        long now = System.currentTimeMillis();
+        long pos = 0;
+        long length = raf.length();
+        int live = 0;
+        int total = 0;
+
+        while (pos + 4 <= length) {
+            raf.seek(pos);
+            int recordLength = raf.readInt();
+            if (recordLength < 11 || pos + 4 + recordLength > length) break; // torn tail write
+
+            long expiresAt = raf.readLong();
+            raf.readByte();
+            int keyLength = raf.readUnsignedShort();
+            if (11 + keyLength > recordLength) break; // corrupt key length: treat as a torn tail
+            byte[] keyBytes = new byte[keyLength];
+            raf.readFully(keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+            total++;
+            if (expiresAt + STALE_GRACE_MILLIS > now) {
+                if (diskIndex.put(key, pos) == null) live++;
+            } else {
+                if (diskIndex.remove(key) != null) live--;
+            }
+            pos += 4 + recordLength;
+        }
+        raf.setLength(pos);
+
+        // Most of the log is dead (expired or overwritten): rewrite it once at startup
+        if (total > 1_000 && live * 2 < total) {
+            compact(raf);
+        }
+    }
+
+    private void compact(RandomAccessFile raf) throws IOException {
+        Map<String, byte[]> liveRecords = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : diskIndex.entrySet()) {
+            raf.seek(e.getValue());
+            byte[] record = new byte[4 + raf.readInt()];
+            raf.seek(e.getValue());
+            raf.readFully(record);
+            liveRecords.put(e.getKey(), record);
+        }
+
+        raf.setLength(0);
+        diskIndex.clear();
+        for (Map.Entry<String, byte[]> e : liveRecords.entrySet()) {
+            diskIndex.put(e.getKey(), raf.getFilePointer());
+            raf.write(e.getValue());
+        }
+    }
+
+    private Entry readDisk(String cacheKey, long now, boolean allowStale) {
+        if (log == null) return null;
+        synchronized (log) {
+            Long offset = diskIndex.get(cacheKey);
+            if (offset == null) return null;
+            try {
+                byte[] expectedKey = cacheKey.getBytes(StandardCharsets.UTF_8);
+                log.seek(offset);
+                int recordLength = log.readInt();
+                if (recordLength < 11 + expectedKey.length || offset + 4 + recordLength > log.length()) {
+                    diskIndex.remove(cacheKey); // offset no longer points at a record
+                    return null;
+                }
+                long expiresAt = log.readLong();
+                if (expiresAt + STALE_GRACE_MILLIS <= now) {
+                    diskIndex.remove(cacheKey);
+                    return null;
+                }
+                if (expiresAt <= now && !allowStale) return null;
+                boolean negative = log.readByte() != 0;
+                int keyLength = log.readUnsignedShort();
+                byte[] storedKey = new byte[expectedKey.length];
+                if (keyLength == expectedKey.length) log.readFully(storedKey);
+                if (keyLength != expectedKey.length || !Arrays.equals(storedKey, expectedKey)) {
+                    diskIndex.remove(cacheKey); // someone else's record
+                    return null;
+                }
+                if (negative) return new Entry(null, expiresAt);
+
+                byte[] value = new byte[recordLength - 11 - keyLength];
+                log.readFully(value);
+                return new Entry(new String(value, StandardCharsets.UTF_8), expiresAt);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    private void writeDisk(String cacheKey, Entry entry) {
+        if (log == null) return;
+        try {
+            byte[] key = cacheKey.getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.value != null ? entry.value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(15 + key.length + value.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(11 + key.length + value.length);
+            out.writeLong(entry.expiresAt);
+            out.writeByte(entry.value == null ? 1 : 0);
+            out.writeShort(key.length);
+            out.write(key);
+            out.write(value);
+
+            synchronized (log) {
+                long offset = log.length();
+                log.seek(offset);
+                log.write(bytes.toByteArray());
+                diskIndex.put(cacheKey, offset);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
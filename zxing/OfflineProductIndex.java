@@ -0,0 +1,517 @@
+/**
+ * OfflineProductIndex.java
+ *
+ * Local barcode → product index built from the OpenFoodFacts data export, so product info
+ * needs no network round-trip.
+ *
+ * Segment file layout (all big-endian):
+ *   [int magic][int count][long keys[count]][long offsets[count]][heap]
+ * keys are barcodes as primitive longs, sorted, so a lookup is a binary search over the
+ * memory-mapped key array; each offset points at [int length][UTF-8 fields joined by \u001F]
+ * in the heap, read with positional reads.
+ *
+ * Updates never rewrite the base: "import --delta" writes a new, smaller segment that shadows
+ * older ones, and "compact" merges everything back into one base segment.
+ *
+ * Usage:
+ * java -cp "..." OfflineProductIndex import <en.openfoodfacts.org.products.csv[.gz] | products.jsonl[.gz]> [--delta]
+ * java -cp "..." OfflineProductIndex lookup <barcode>
+ * java -cp "..." OfflineProductIndex compact
+ *
+ * Index directory: ~/.barcode-scanner/off-index (override with -DofflineIndex.dir=...)
+ */
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+public final class OfflineProductIndex implements Closeable {
+
+    private static final int MAGIC = 0x4F464658; // "OFFX"
+    private static final char FIELD_SEPARATOR = '\u001F';
+    private static final String BASE_NAME = "base.idx";
+    private static final String DELTA_PREFIX = "delta-";
+
+    // Newest first: deltas in reverse order, then the base
+    private final List<Segment> segments;
+
+    private static volatile OfflineProductIndex shared;
+    private static volatile boolean sharedLoaded;
+
+    // ---------------------------------------------------------
+    // 1. OPEN / SHARED INSTANCE
+    // ---------------------------------------------------------
+    public static File defaultDir() {
+        return new File(System.getProperty("offlineIndex.dir",
+                System.getProperty("user.home") + File.separator + ".barcode-scanner" + File.separator + "off-index"));
+    }
+
+    // The process-wide index, or null when none has been imported
+    public static OfflineProductIndex shared() {
+        if (!sharedLoaded) {
+            synchronized (OfflineProductIndex.class) {
+                if (!sharedLoaded) {
+                    try {
+                        File dir = defaultDir();
+                        if (new File(dir, BASE_NAME).isFile() || hasDeltas(dir)) {
+                            shared = new OfflineProductIndex(dir);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Logged once; lookups then fall back to the cache and network
+                        e.printStackTrace();
+                    }
+                    sharedLoaded = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    public OfflineProductIndex(File dir) throws IOException {
+        this.segments = new ArrayList<>();
+        try {
+            List<File> deltas = deltaFiles(dir);
+            for (int i = deltas.size() - 1; i >= 0; i--) {
+                segments.add(new Segment(deltas.get(i)));
+            }
+            File base = new File(dir, BASE_NAME);
+            if (base.isFile()) segments.add(new Segment(base));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static boolean hasDeltas(File dir) {
+        return !deltaFiles(dir).isEmpty();
+    }
+
+    private static List<File> deltaFiles(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(DELTA_PREFIX) && name.endsWith(".idx"));
+        if (files == null) return new ArrayList<>();
+        Arrays.sort(files); // zero-padded sequence numbers sort chronologically
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    // ---------------------------------------------------------
+    // 2. LOOKUP
+    // ---------------------------------------------------------
+    // Product for a barcode, or null if no segment has it
+    public OpenFoodFactsProduct lookup(String barcode) {
+        long key = toKey(barcode);
+        if (key < 0) return null;
+        for (Segment segment : segments) {
+            try {
+                String record = segment.find(key);
+                if (record != null) return toProduct(record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    // Digits only, at most 18 of them; leading zeros drop out, so UPC-A and its EAN-13 form share a key
+    static long toKey(String barcode) {
+        if (barcode == null) return -1;
+        String code = barcode.trim();
+        if (code.isEmpty() || code.length() > 18) return -1;
+        long key = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    private static OpenFoodFactsProduct toProduct(String record) {
+        String[] f = record.split(String.valueOf(FIELD_SEPARATOR), -1);
+        OpenFoodFactsProduct p = new OpenFoodFactsProduct();
+        p.status = 1;
+        p.found = true;
+        p.productName = emptyToNull(f, 0);
+        p.brands = emptyToNull(f, 1);
+        p.categories = emptyToNull(f, 2);
+        p.labels = emptyToNull(f, 3);
+        p.ingredientsText = emptyToNull(f, 4);
+        p.nutriscoreGrade = emptyToNull(f, 5);
+        return p;
+    }
+
+    private static String emptyToNull(String[] fields, int i) {
+        return i < fields.length && !fields[i].isEmpty() ? fields[i] : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments) segment.close();
+    }
+
+    // One immutable segment: mapped key/offset arrays + heap read through the channel
+    static final class Segment implements Closeable {
+        private final FileChannel channel;
+        private final LongBuffer keys;
+        private final LongBuffer offsets;
+        private final int count;
+
+        Segment(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath());
+            try {
+                if (channel.size() < 8) throw new IOException("Truncated offline index segment: " + file);
+                ByteBuffer header = readFully(ByteBuffer.allocate(8), 0);
+                if (header.getInt() != MAGIC) throw new IOException("Not an offline index segment: " + file);
+                this.count = header.getInt();
+                if (count < 0 || 8 + 16L * count > channel.size()) {
+                    throw new IOException("Corrupt offline index segment (" + count + " keys): " + file);
+                }
+
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 8, 16L * count);
+                this.keys = map.slice().asLongBuffer();
+                this.keys.limit(count);
+                map.position(8 * count);
+                this.offsets = map.slice().asLongBuffer();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        String find(long key) throws IOException {
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long k = keys.get(mid);
+                if (k < key) lo = mid + 1;
+                else if (k > key) hi = mid - 1;
+                else return readRecord(offsets.get(mid));
+            }
+            return null;
+        }
+
+        private String readRecord(long offset) throws IOException {
+            long size = channel.size();
+            if (offset < 0 || offset > size - 4) throw new IOException("Corrupt offline index record offset: " + offset);
+            int length = readFully(ByteBuffer.allocate(4), offset).getInt();
+            if (length < 0 || length > size - offset - 4) {
+                throw new IOException("Corrupt offline index record length: " + length);
+            }
+            ByteBuffer bytes = readFully(ByteBuffer.allocate(length), offset + 4);
+            return new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if (n < 0) throw new IOException("Truncated offline index segment");
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        // Streams every (key, record) pair in key order, used by compaction
+        void forEach(RecordSink sink) throws IOException {
+            for (int i = 0; i < count; i++) {
+                sink.accept(keys.get(i), readRecord(offsets.get(i)));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    interface RecordSink {
+        void accept(long key, String record) throws IOException;
+    }
+
+    // ---------------------------------------------------------
+    // 3. SEGMENT WRITER (heap streamed to a temp file, keys sorted in memory as primitives)
+    // ---------------------------------------------------------
+    static final class SegmentWriter implements Closeable {
+        private final File target;
+        private final File heapFile;
+        private final DataOutputStream heap;
+        private long heapSize;
+        private long[] keys = new long[1 << 16];
+        private long[] offsets = new long[1 << 16];
+        private int count;
+
+        SegmentWriter(File target) throws IOException {
+            this.target = target;
+            this.heapFile = new File(target.getPath() + ".heap.tmp");
+            this.heap = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(heapFile), 1 << 16));
+        }
+
+        void add(long key, String record) throws IOException {
+            byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            keys[count] = key;
+            offsets[count] = heapSize;
+            count++;
+            heap.writeInt(bytes.length);
+            heap.write(bytes);
+            heapSize += 4 + bytes.length;
+        }
+
+        // Sort by key; on duplicate keys the later record (higher heap offset) wins
+        void finish() throws IOException {
+            heap.close();
+            sortPairs(keys, offsets, 0, count - 1);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique > 0 && keys[unique - 1] == keys[i]) {
+                    offsets[unique - 1] = Math.max(offsets[unique - 1], offsets[i]);
+                } else {
+                    keys[unique] = keys[i];
+                    offsets[unique] = offsets[i];
+                    unique++;
+                }
+            }
+            count = unique;
+
+            long heapStart = 8 + 16L * unique;
+            File tmp = new File(target.getPath() + ".tmp");
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.setLength(0);
+                ByteBuffer index = ByteBuffer.allocate(8 + 16 * unique);
+                index.putInt(MAGIC).putInt(unique);
+                for (int i = 0; i < unique; i++) index.putLong(keys[i]);
+                for (int i = 0; i < unique; i++) index.putLong(heapStart + offsets[i]);
+                index.flip();
+                FileChannel channel = out.getChannel();
+                while (index.hasRemaining()) channel.write(index);
+                try (FileChannel heapChannel = FileChannel.open(heapFile.toPath())) {
+                    long pos = 0;
+                    while (pos < heapSize) pos += heapChannel.transferTo(pos, heapSize - pos, channel);
+                }
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            heapFile.delete();
+        }
+
+        int size() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            heap.close();
+            heapFile.delete();
+        }
+
+        // In-place quicksort of parallel arrays by (key, offset)
+        static void sortPairs(long[] k, long[] v, int lo, int hi) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long pk = k[mid];
+                long pv = v[mid];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (k[i] < pk || (k[i] == pk && v[i] < pv)) i++;
+                    while (k[j] > pk || (k[j] == pk && v[j] > pv)) j--;
+                    if (i <= j) {
+                        long t = k[i]; k[i] = k[j]; k[j] = t;
+                        t = v[i]; v[i] = v[j]; v[j] = t;
+                        i++;
+                        j--;
+                    }
+                }
+                // Recurse into the smaller half to bound stack depth
+                if (j - lo < hi - i) {
+                    sortPairs(k, v, lo, j);
+                    lo = i;
+                } else {
+                    sortPairs(k, v, i, hi);
+                    hi = j;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. IMPORT (streaming CSV / JSONL, optionally gzipped)
+    // ---------------------------------------------------------
+    public static int importDump(File dump, File dir, boolean delta) throws IOException {
+        dir.mkdirs();
+        File target = delta ? nextDeltaFile(dir) : new File(dir, BASE_NAME);
+
+        try (SegmentWriter writer = new SegmentWriter(target);
+             BufferedReader in = new BufferedReader(new InputStreamReader(open(dump), StandardCharsets.UTF_8), 1 << 16)) {
+            String name = dump.getName().toLowerCase(Locale.ROOT);
+            if (name.contains(".jsonl") || name.contains(".json")) {
+                importJsonLines(in, writer);
+            } else {
+                importCsv(in, writer);
+            }
+            writer.finish();
+            if (!delta) {
+                // A fresh base supersedes all older deltas
+                for (File old : deltaFiles(dir)) old.delete();
+            }
+            return writer.size();
+        }
+    }
+
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        return file.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static File nextDeltaFile(File dir) {
+        List<File> deltas = deltaFiles(dir);
+        int next = 1;
+        if (!deltas.isEmpty()) {
+            String last = deltas.get(deltas.size() - 1).getName();
+            next = Integer.parseInt(last.substring(DELTA_PREFIX.length(), last.length() - 4)) + 1;
+        }
+        return new File(dir, String.format(Locale.ROOT, "%s%06d.idx", DELTA_PREFIX, next));
+    }
+
+    // OpenFoodFacts CSV export: tab-separated with a header row, no quoting
+    private static void importCsv(BufferedReader in, SegmentWriter writer) throws IOException {
+        String header = in.readLine();
+        if (header == null) return;
+        List<String> columns = Arrays.asList(header.split("\t", -1));
+        int code = columns.indexOf("code");
+        int[] fields = {
+                columns.indexOf("product_name"), columns.indexOf("brands"), columns.indexOf("categories"),
+                columns.indexOf("labels"), columns.indexOf("ingredients_text"), columns.indexOf("nutriscore_grade")
+        };
+        if (code < 0) throw new IOException("CSV header has no 'code' column");
+
+        String line;
+        String[] values = new String[fields.length];
+        while ((line = in.readLine()) != null) {
+            String[] cols = line.split("\t", -1);
+            if (code >= cols.length) continue;
+            long key = toKey(cols[code]);
+            if (key < 0) continue;
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i] >= 0 && fields[i] < cols.length ? cols[fields[i]] : null;
+            }
+            writer.add(key, joinRecord(values));
+        }
+    }
+
+    // OpenFoodFacts JSONL export: one product object per line; only top-level fields are read
+    private static void importJsonLines(BufferedReader in, SegmentWriter writer) throws IOException {
+        String line;
+        String[] values = new String[6];
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank()) continue;
+            String code = null;
+            Arrays.fill(values, null);
+            try (JsonParser parser = HttpTransport.JSON.getFactory().createParser(line)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) continue;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (!value.isScalarValue()) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    switch (field) {
+                        case "code": code = parser.getValueAsString(); break;
+                        case "product_name": values[0] = parser.getValueAsString(); break;
+                        case "brands": values[1] = parser.getValueAsString(); break;
+                        case "categories": values[2] = parser.getValueAsString(); break;
+                        case "labels": values[3] = parser.getValueAsString(); break;
+                        case "ingredients_text": values[4] = parser.getValueAsString(); break;
+                        case "nutriscore_grade": values[5] = parser.getValueAsString(); break;
+                        default: break;
+                    }
+                }
+            } catch (IOException e) {
+                continue; // skip malformed lines rather than abort a multi-GB import
+            }
+            long key = toKey(code);
+            if (key >= 0) writer.add(key, joinRecord(values));
+        }
+    }
+
+    private static String joinRecord(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(FIELD_SEPARATOR);
+            if (values[i] != null) sb.append(values[i].replace(FIELD_SEPARATOR, ' '));
+        }
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------
+    // 5. COMPACTION (base + deltas → new base)
+    // ---------------------------------------------------------
+    public static int compact(File dir) throws IOException {
+        List<File> deltas = deltaFiles(dir);
+        int written;
+        try (OfflineProductIndex index = new OfflineProductIndex(dir);
+             SegmentWriter writer = new SegmentWriter(new File(dir, BASE_NAME + ".new"))) {
+            // Oldest first, so newer segments win the duplicate-key resolution in finish()
+            for (int i = index.segments.size() - 1; i >= 0; i--) {
+                index.segments.get(i).forEach(writer::add);
+            }
+            writer.finish();
+            written = writer.size();
+        }
+        Files.move(new File(dir, BASE_NAME + ".new").toPath(), new File(dir, BASE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (File delta : deltas) delta.delete();
+        return written;
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws Exception {
+        File dir = defaultDir();
+        if (args.length >= 2 && args[0].equals("import")) {
+            boolean delta = args.length > 2 && args[2].equals("--delta");
+            long start = System.nanoTime();
+            int n = importDump(new File(args[1]), dir, delta);
+            System.out.printf(Locale.ROOT, "Imported %d records into %s in %.1f s%n", n, dir, (System.nanoTime() - start) / 1e9);
+        } else if (args.length >= 2 && args[0].equals("lookup")) {
+            try (OfflineProductIndex index = new OfflineProductIndex(dir)) {
+                long start = System.nanoTime();
+                OpenFoodFactsProduct p = index.lookup(args[1]);
+                long took = System.nanoTime() - start;
+                System.out.println(p == null ? "Not found" : p.productName + " | " + p.brands + " | " + p.nutriscoreGrade);
+                System.out.printf(Locale.ROOT, "(%.3f ms)%n", took / 1e6);
+            }
+        } else if (args.length >= 1 && args[0].equals("compact")) {
+            System.out.println("Compacted " + compact(dir) + " records");
+        } else {
+            System.err.println("Usage: OfflineProductIndex import <dump> [--delta] | lookup <barcode> | compact");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The handful of OpenFoodFacts product fields the apps display, pulled straight from the
+ * response stream with Jackson's streaming JsonParser. Everything else in the (often
+ * several hundred KB) payload is skipped without building a tree or materialising strings.
+ */
+public final class OpenFoodFactsProduct {
+
+    // Ask the API for just these fields; the parser skips anything else it still sends
+    public static final String FIELDS = "product_name,brands,categories,labels,ingredients_text,nutriscore_grade";
+
+    // Shared instances so identical in-flight requests coalesce in HttpTransport
+    public static final HttpTransport.BodyParser<OpenFoodFactsProduct> PARSER = OpenFoodFactsProduct::parse;
+    public static final HttpTransport.BodyParser<List<OpenFoodFactsProduct>> SEARCH_PARSER = OpenFoodFactsProduct::parseSearch;
+
+    public int status;
+    public boolean found; // response had a "product" object
+    public String code;   // only set by search results
+    public String productName;
+    public String brands;
+    public String categories;
+    public String labels;
+    public String ingredientsText;
+    public String nutriscoreGrade;
+
+    public static String url(String barcode) {
+        return LookupCache.Source.OPEN_FOOD_FACTS.baseUrl + "/api/v0/product/" + barcode + ".json?fields=" + FIELDS;
+    }
+
+    // Several products in one request (search API, code=a,b,c)
+    public static String searchUrl(List<String> barcodes) {
+        return LookupCache.Source.OPEN_FOOD_FACTS.baseUrl + "/api/v2/search?code=" + ProductLookups.joinEncoded(barcodes)
+                + "&page_size=" + barcodes.size() + "&fields=code," + FIELDS;
+    }
+
+    // ---------------------------------------------------------
+    // STREAMING PARSE
+    // ---------------------------------------------------------
+    public static OpenFoodFactsProduct parse(InputStream body) throws IOException {
+        OpenFoodFactsProduct result = new OpenFoodFactsProduct();
+
+        try (JsonParser parser = HttpTransport.JSON.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object from OpenFoodFacts");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if ("status".equals(field) && value.isScalarValue()) {
+                    result.status = parser.getValueAsInt();
+                } else if ("product".equals(field) && value == JsonToken.START_OBJECT) {
+                    result.found = true;
+                    readProduct(parser, result);
+                } else {
+                    parser.skipChildren(); // no-op for scalars
+                }
+            }
+        }
+        return result;
+    }
+
+    // {"count": n, "products": [{"code": ..., fields...}, ...], ...}
+    public static List<OpenFoodFactsProduct> parseSearch(InputStream body) throws IOException {
+        List<OpenFoodFactsProduct> products = new ArrayList<>();
+
+        try (JsonParser parser = HttpTransport.JSON.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object from OpenFoodFacts search");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if ("products".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        OpenFoodFactsProduct product = new OpenFoodFactsProduct();
+                        product.status = 1;
+                        product.found = true;
+                        readProduct(parser, product);
+                        products.add(product);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return products;
+    }
+
+    private static void readProduct(JsonParser parser, OpenFoodFactsProduct result) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (!value.isScalarValue()) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "code": result.code = parser.getValueAsString(); break;
+                case "product_name": result.productName = parser.getValueAsString(); break;
+                case "brands": result.brands = parser.getValueAsString(); break;
+                case "categories": result.categories = parser.getValueAsString(); break;
+                case "labels": result.labels = parser.getValueAsString(); break;
+                case "ingredients_text": result.ingredientsText = parser.getValueAsString(); break;
+                case "nutriscore_grade": result.nutriscoreGrade = parser.getValueAsString(); break;
+                default: break; // unread scalars are skipped by the next nextToken()
+            }
+        }
+    }
+
+    // ---------------------------------------------------------
+    // CACHE FORM
+    // ---------------------------------------------------------
+    // The displayed fields as a small JSON object (what LookupCache stores)
+    public String toCacheValue() {
+        ObjectNode node = HttpTransport.JSON.createObjectNode();
+        if (productName != null) node.put("product_name", productName);
+        if (brands != null) node.put("brands", brands);
+        if (categories != null) node.put("categories", categories);
+        if (labels != null) node.put("labels", labels);
+        if (ingredientsText != null) node.put("ingredients_text", ingredientsText);
+        if (nutriscoreGrade != null) node.put("nutriscore_grade", nutriscoreGrade);
+        return node.toString();
+    }
+
+    public static OpenFoodFactsProduct fromCacheValue(String value) throws IOException {
+        OpenFoodFactsProduct result = new OpenFoodFactsProduct();
+        result.status = 1;
+        result.found = true;
+        try (JsonParser parser = HttpTransport.JSON.getFactory().createParser(value)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Bad cached product: " + value);
+            readProduct(parser, result);
+        }
+        return result;
+    }
+
+    public static String orNA(String value) {
+        return value != null ? value : "N/A";
+    }
+}
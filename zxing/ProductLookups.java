@@ -0,0 +1,285 @@
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Network lookups shared by the Swing app and the headless entry points.
+ * All methods are blocking and thread-safe; callers decide which thread they run on.
+ * Responses (including "not found") go through the shared LookupCache, and every request
+ * goes through the shared, coalescing HttpTransport behind that source's UpstreamGuard.
+ * Concurrent misses for BarcodeLookup and OpenFoodFacts are micro-batched (LookupBatcher).
+ * Barcodes that fail GTIN validation (Gtin) never reach the network.
+ */
+public final class ProductLookups {
+
+    // ---- TODO: insert your BarcodeLookup API key here ----
+    private static final String BARCODE_LOOKUP_API_KEY = "oxutdjyhjspmaocz1np90n18rn319y";
+
+    private static final LookupCache CACHE = LookupCache.shared();
+
+    // Shared parser instances, so concurrent identical requests coalesce in HttpTransport
+    private static final HttpTransport.BodyParser<JsonNode> JSON_TREE = HttpTransport.JSON::readTree;
+    private static final HttpTransport.BodyParser<Document> HTML =
+            body -> Jsoup.parse(body, "UTF-8", "https://www.ethicalconsumer.org/");
+
+    // Cache misses that arrive together (batch mode, multi-barcode images, the scan server)
+    // share one multi-code request instead of one request each
+    private static final LookupBatcher<String> MANUFACTURERS =
+            new LookupBatcher<>(10, (barcodes, failed) -> fetchManufacturers(barcodes));
+    private static final LookupBatcher<OpenFoodFactsProduct> OPEN_FOOD_FACTS =
+            new LookupBatcher<>(24, ProductLookups::fetchOpenFoodFacts);
+
+    // OpenFoodFacts search has a 10/min quota against 100/min for product reads, so it only
+    // pays off for batches at least this big
+    private static final int MIN_SEARCH_BATCH = 4;
+
+    private ProductLookups() {
+    }
+
+    // ---------------------------------------------------------
+    // 1. BARCODE → MANUFACTURER (GS1 prefix table, then BarcodeLookup API)
+    // ---------------------------------------------------------
+    public static String searchManufacturerByBarcode(String barcode) {
+        long start = System.nanoTime();
+        try {
+            long gtin = Gtin.parse(barcode);
+            if (gtin == Gtin.INVALID) return null; // not an EAN/UPC (or misread): nothing to look up
+
+            // The company prefix names the brand owner; the API only for prefixes not in the table
+            Gs1Prefixes prefixes = Gs1Prefixes.shared();
+            String owner = prefixes != null ? prefixes.owner(gtin) : null;
+            if (owner != null) return owner;
+
+            return CACHE.get(LookupCache.Source.BARCODE_LOOKUP, barcode, () -> fetchManufacturer(barcode));
+        } catch (Exception e) {
+            report(e);
+        } finally {
+            took(ScanMetrics.Stage.LOOKUP_BARCODE_LOOKUP, start);
+        }
+        return null;
+    }
+
+    private static String fetchManufacturer(String barcode) throws Exception {
+        return MANUFACTURERS.get(barcode.trim());
+    }
+
+    // One request for up to 10 comma-separated barcodes; products come back with barcode_number
+    private static CompletableFuture<Map<String, String>> fetchManufacturers(List<String> barcodes) {
+        String apiUrl = LookupCache.Source.BARCODE_LOOKUP.baseUrl + "/v3/products?barcode=" + joinEncoded(barcodes)
+                + "&formatted=y&key=" + BARCODE_LOOKUP_API_KEY;
+
+        return HttpTransport.getAsync(apiUrl, Duration.ofSeconds(5), JSON_TREE,
+                UpstreamGuard.forSource(LookupCache.Source.BARCODE_LOOKUP)).handle((root, error) -> {
+            if (error != null) {
+                Throwable cause = HttpTransport.unwrap(error);
+                if (cause instanceof HttpTransport.HttpStatusException
+                        && ((HttpTransport.HttpStatusException) cause).status == 404) {
+                    return Map.of(); // BarcodeLookup answers 404 when none of the barcodes is known
+                }
+                throw new CompletionException(cause);
+            }
+
+            Map<String, String> found = new HashMap<>();
+            JsonNode products = root.get("products");
+            if (products != null && products.isArray()) {
+                for (JsonNode product : products) {
+                    // A single code takes the first product, as before batching
+                    String key = barcodes.size() == 1
+                            ? barcodes.get(0)
+                            : requested(barcodes, product.path("barcode_number").asText());
+                    if (key == null || found.containsKey(key)) continue;
+                    found.put(key, product.has("manufacturer") ? product.get("manufacturer").asText() : null);
+                }
+            }
+            return found;
+        });
+    }
+
+    // ---------------------------------------------------------
+    // 2. ETHICAL CONSUMER SEARCH → RETURN FIRST RESULT
+    // ---------------------------------------------------------
+    public static String searchEthicalConsumerTopHit(String brand) {
+        long start = System.nanoTime();
+        try {
+            // Local fuzzy index first; scrape only on a miss and remember what the scrape found
+            String indexed = BrandIndex.shared().match(brand);
+            if (indexed != null) return indexed;
+
+            String hit = CACHE.get(LookupCache.Source.ETHICAL_CONSUMER, brand, () -> fetchEthicalConsumerTopHit(brand));
+            if (hit != null) BrandIndex.shared().add(brand, hit);
+            return hit;
+        } catch (Exception e) {
+            report(e);
+        } finally {
+            took(ScanMetrics.Stage.LOOKUP_ETHICAL_CONSUMER, start);
+        }
+        return null;
+    }
+
+    private static String fetchEthicalConsumerTopHit(String brand) throws Exception {
+        // Encode brand properly for URLs
+        String encodedBrand = java.net.URLEncoder.encode(brand, "UTF-8");
+        String searchUrl = LookupCache.Source.ETHICAL_CONSUMER.baseUrl + "/search?keywords=" + encodedBrand;
+
+        Document doc = HttpTransport.get(searchUrl, Duration.ofSeconds(6), HTML,
+                UpstreamGuard.forSource(LookupCache.Source.ETHICAL_CONSUMER));
+        // Select the first result reliably
+        Element topLink = doc.selectFirst(".search-result__title a");
+        if (topLink != null) {
+            return topLink.text() + " -> https://www.ethicalconsumer.org" + topLink.attr("href");
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------
+    // 3. OPENFOODFACTS (EXTRA INFO)
+    // ---------------------------------------------------------
+    // Display text (product summary, or a one-line "no data" / error message)
+    public static String getOpenFoodFactsInfo(String barcode) {
+        try {
+            OpenFoodFactsProduct product = lookupOpenFoodFacts(barcode);
+            return product != null ? formatOpenFoodFacts(product) : "No OpenFoodFacts data.";
+        } catch (UpstreamGuard.UnavailableException e) {
+            return "OpenFoodFacts unavailable right now.";
+        } catch (Exception e) {
+            report(e);
+        }
+        return "OpenFoodFacts error.";
+    }
+
+    // The product, or null if OpenFoodFacts doesn't know the barcode. Throws
+    // UpstreamGuard.UnavailableException while the source refuses calls.
+    public static OpenFoodFactsProduct lookupOpenFoodFacts(String barcode) throws Exception {
+        long start = System.nanoTime();
+        try {
+            if (Gtin.parse(barcode) == Gtin.INVALID) return null; // OpenFoodFacts only knows EAN/UPC codes
+
+            // Local OpenFoodFacts index first (if one was imported): no network, no cache entry needed
+            OfflineProductIndex offline = OfflineProductIndex.shared();
+            if (offline != null) {
+                OpenFoodFactsProduct product = offline.lookup(barcode);
+                if (product != null) return product;
+            }
+
+            String cached = CACHE.get(LookupCache.Source.OPEN_FOOD_FACTS, barcode, () -> fetchOpenFoodFactsInfo(barcode));
+            return cached != null ? OpenFoodFactsProduct.fromCacheValue(cached) : null;
+        } finally {
+            took(ScanMetrics.Stage.LOOKUP_OPEN_FOOD_FACTS, start);
+        }
+    }
+
+    private static String fetchOpenFoodFactsInfo(String barcode) throws Exception {
+        OpenFoodFactsProduct product = OPEN_FOOD_FACTS.get(barcode.trim());
+        if (product == null) return null;
+        return product.toCacheValue();
+    }
+
+    // Big batches go through one search request; small ones, or any batch while the search
+    // quota is exhausted, through the product endpoint per code (in parallel)
+    private static CompletableFuture<Map<String, OpenFoodFactsProduct>> fetchOpenFoodFacts(List<String> barcodes,
+                                                                                     Map<String, Throwable> failed) {
+        if (barcodes.size() < MIN_SEARCH_BATCH) return fetchOpenFoodFactsEach(barcodes, failed);
+
+        return HttpTransport.getAsync(OpenFoodFactsProduct.searchUrl(barcodes), Duration.ofSeconds(10),
+                        OpenFoodFactsProduct.SEARCH_PARSER, UpstreamGuard.OPEN_FOOD_FACTS_SEARCH)
+                .thenApply(products -> {
+                    Map<String, OpenFoodFactsProduct> found = new HashMap<>();
+                    for (OpenFoodFactsProduct product : products) {
+                        String key = requested(barcodes, product.code);
+                        if (key != null) found.putIfAbsent(key, product);
+                    }
+                    return found;
+                })
+                .exceptionallyCompose(error -> HttpTransport.unwrap(error) instanceof UpstreamGuard.UnavailableException
+                        ? fetchOpenFoodFactsEach(barcodes, failed)
+                        : CompletableFuture.failedFuture(HttpTransport.unwrap(error)));
+    }
+
+    // A failed call fails only its own barcode (recorded in failed), not the whole batch
+    private static CompletableFuture<Map<String, OpenFoodFactsProduct>> fetchOpenFoodFactsEach(List<String> barcodes,
+                                                                                         Map<String, Throwable> failed) {
+        Map<String, OpenFoodFactsProduct> found = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[barcodes.size()];
+        for (int i = 0; i < calls.length; i++) {
+            String barcode = barcodes.get(i);
+            calls[i] = HttpTransport.getAsync(OpenFoodFactsProduct.url(barcode), Duration.ofSeconds(5),
+                            OpenFoodFactsProduct.PARSER, UpstreamGuard.forSource(LookupCache.Source.OPEN_FOOD_FACTS))
+                    .handle((product, error) -> {
+                        if (error != null) failed.put(barcode, error);
+                        else if (product.found) found.put(barcode, product);
+                        return null;
+                    });
+        }
+        return CompletableFuture.allOf(calls).thenApply(v -> found);
+    }
+
+    static String joinEncoded(List<String> codes) {
+        StringBuilder sb = new StringBuilder();
+        for (String code : codes) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(URLEncoder.encode(code, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    // The requested barcode a response code refers to. APIs may add or drop leading zeros
+    // (UPC-A 12 digits vs EAN-13), so those are ignored.
+    private static String requested(List<String> barcodes, String code) {
+        if (code == null) return null;
+        String stripped = stripLeadingZeros(code);
+        for (String barcode : barcodes) {
+            if (stripLeadingZeros(barcode).equals(stripped)) return barcode;
+        }
+        return null;
+    }
+
+    private static String stripLeadingZeros(String code) {
+        int i = 0;
+        while (i < code.length() - 1 && code.charAt(i) == '0') i++;
+        return code.substring(i);
+    }
+
+    static String formatOpenFoodFacts(OpenFoodFactsProduct product) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("--- OpenFoodFacts Info ---\n");
+
+        if (product.productName != null)
+            sb.append("Product Name: ").append(product.productName).append("\n");
+
+        if (product.brands != null)
+            sb.append("Brands: ").append(product.brands).append("\n");
+
+        if (product.ingredientsText != null)
+            sb.append("Ingredients: ").append(product.ingredientsText).append("\n");
+
+        if (product.nutriscoreGrade != null)
+            sb.append("Nutriscore: ").append(product.nutriscoreGrade).append("\n");
+
+        return sb.toString();
+    }
+
+    private static void took(ScanMetrics.Stage stage, long start) {
+        ScanMetrics.record(stage, System.nanoTime() - start);
+    }
+
+    // Fail-fast refusals are expected while a source is unhealthy: one line, not a stack trace
+    private static void report(Exception e) {
+        if (e instanceof UpstreamGuard.UnavailableException) {
+            System.err.println(e.getMessage());
+        } else {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,562 @@
+/**
+ * ReplayServer.java
+ *
+ * Local stand-in for OpenFoodFacts, BarcodeLookup and EthicalConsumer, so benchmarks and load
+ * tests of the lookup path (batching, caching, UpstreamGuard) run offline and get the same
+ * answers on every run.
+ *
+ *   record   replays what it has; anything else is forwarded to the real service, saved, returned
+ *   replay   recordings only; a request without one gets --miss-status (default 404)
+ *
+ * Each source is served under its own path (/open_food_facts/..., /barcode_lookup/...,
+ * /ethical_consumer/...). Point the app at it with the -Dupstream.<source>.baseUrl flags printed
+ * at startup. For load tests also raise the client quotas (-Dupstream.<source>.perMinute) and use
+ * a scratch -DlookupCache.dir, or the numbers measure the throttle and last run's cache.
+ *
+ * Recordings are <dir>/<source>/<sha1>.json: {request, status, contentType, body}. A request is
+ * identified by its path and sorted query parameters, without the API key (never written to disk)
+ * and page_size. Multi-code requests (barcode=a,b / code=a,b) are also saved per code, and a
+ * multi-code request without an exact recording is answered by merging the per-code "products"
+ * arrays, so replay doesn't depend on how the batcher happened to group codes. OpenFoodFacts
+ * search and product recordings stand in for each other the same way.
+ *
+ * Injected faults apply to replayed responses; each takes N (all sources) or source=N,...:
+ *   --latency-ms N   added delay             --jitter-ms N    plus a uniform 0..N ms
+ *   --error-rate F   fraction answered 503   --rate-limit N   requests/minute, then 429 + Retry-After
+ *
+ * Usage:
+ * java -cp "..." ReplayServer record|replay [--dir DIR] [--port 8090] [--latency-ms 80] [--jitter-ms 40]
+ *     [--error-rate 0.02] [--rate-limit 100] [--miss-status 404] [--seed 1] [--upstream source=URL]
+ *
+ * Recordings directory: ~/.barcode-scanner/recordings (override with --dir)
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public final class ReplayServer {
+
+    // Left out of request keys: the API key is a secret, page_size follows the batch size
+    private static final Set<String> IGNORED_PARAMS = Set.of("key", "page_size");
+    // Multi-code parameters: BarcodeLookup products, OpenFoodFacts search
+    private static final Set<String> LIST_PARAMS = Set.of("barcode", "code");
+
+    // One saved response
+    static final class Recording {
+        public String request;
+        public int status;
+        public String contentType;
+        public String body;
+    }
+
+    // Injected behaviour for one source (rate limiter guarded by this)
+    static final class Faults {
+        final long latencyMillis;
+        final long jitterMillis;
+        final double errorRate;
+        final double perMinute; // <= 0: unlimited
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        Faults(long latencyMillis, long jitterMillis, double errorRate, double perMinute) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            this.errorRate = errorRate;
+            this.perMinute = perMinute;
+            this.tokens = burst();
+        }
+
+        // One second's worth of requests may arrive at once
+        private double burst() {
+            return Math.max(1, perMinute / 60);
+        }
+
+        synchronized boolean tryAcquire() {
+            if (perMinute <= 0) return true;
+            long now = System.nanoTime();
+            tokens = Math.min(burst(), tokens + (now - refilledAt) * perMinute / 60e9);
+            refilledAt = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    private final boolean record;
+    private final File dir;
+    private final int missStatus;
+    private final Map<LookupCache.Source, Faults> faults;
+    private final Map<LookupCache.Source, String> upstreams;
+    private final Random random;
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>(); // "source request" → response
+    private final HttpServer server;
+    private final ScheduledExecutorService delayer;
+    private HttpClient client; // record mode only
+
+    public ReplayServer(boolean record, File dir, int port, int missStatus, Map<LookupCache.Source, Faults> faults,
+                        Map<LookupCache.Source, String> upstreams, long seed) throws IOException {
+        this.record = record;
+        this.dir = dir;
+        this.missStatus = missStatus;
+        this.faults = faults;
+        this.upstreams = upstreams;
+        this.random = new Random(seed);
+        load();
+
+        // Delayed answers wait on a timer, not on a handler thread, so slow replies don't cap concurrency
+        this.delayer = Executors.newScheduledThreadPool(2, daemonFactory("replay-delay"));
+        if (record) {
+            this.client = HttpClient.newBuilder()
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+        }
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 256);
+        server.setExecutor(new ThreadPoolExecutor(16, 16, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonFactory("replay-http")));
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // ---------------------------------------------------------
+    // 1. RECORDINGS ON DISK
+    // ---------------------------------------------------------
+    private void load() throws IOException {
+        for (LookupCache.Source source : LookupCache.Source.values()) {
+            File[] files = sourceDir(source).listFiles((d, name) -> name.endsWith(".json"));
+            if (files == null) continue;
+            for (File file : files) {
+                Recording r = HttpTransport.JSON.readValue(file, Recording.class);
+                recordings.put(source.name() + ' ' + r.request, r);
+            }
+        }
+    }
+
+    private File sourceDir(LookupCache.Source source) {
+        return new File(dir, source.name().toLowerCase(Locale.ROOT));
+    }
+
+    private void save(LookupCache.Source source, Recording r) {
+        recordings.put(source.name() + ' ' + r.request, r);
+        File target = new File(sourceDir(source), sha1(r.request) + ".json");
+        try {
+            target.getParentFile().mkdirs();
+            File tmp = new File(target.getPath() + ".tmp");
+            HttpTransport.JSON.writerWithDefaultPrettyPrinter().writeValue(tmp, r);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String sha1(String s) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. REQUEST KEYS
+    // ---------------------------------------------------------
+    // Decoded query parameters, sorted by name (repeated names keep their order)
+    private static TreeMap<String, List<String>> params(String rawQuery) {
+        TreeMap<String, List<String>> params = new TreeMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String key(String path, TreeMap<String, List<String>> params) {
+        StringBuilder sb = new StringBuilder(path);
+        char sep = '?';
+        for (Map.Entry<String, List<String>> e : params.entrySet()) {
+            if (IGNORED_PARAMS.contains(e.getKey())) continue;
+            for (String value : e.getValue()) {
+                sb.append(sep).append(e.getKey()).append('=').append(value);
+                sep = '&';
+            }
+        }
+        return sb.toString();
+    }
+
+    // The multi-code parameter of a request, if it has one with more than one code
+    private static String listParam(TreeMap<String, List<String>> params) {
+        for (String name : LIST_PARAMS) {
+            List<String> values = params.get(name);
+            if (values != null && values.size() == 1 && values.get(0).indexOf(',') > 0) return name;
+        }
+        return null;
+    }
+
+    private static String singleKey(String path, TreeMap<String, List<String>> params, String listParam, String code) {
+        TreeMap<String, List<String>> single = new TreeMap<>(params);
+        single.put(listParam, List.of(code));
+        return key(path, single);
+    }
+
+    // ---------------------------------------------------------
+    // 3. HANDLER (replay, merge, or forward + record)
+    // ---------------------------------------------------------
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            int slash = path.indexOf('/', 1);
+            LookupCache.Source source = slash > 0 ? sourceNamed(path.substring(1, slash)) : null;
+            if (source == null || !exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 404, "text/plain", "Unknown source; use /" + sourceNames() + "/...", null);
+                return;
+            }
+            String upstreamPath = path.substring(slash);
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            TreeMap<String, List<String>> params = params(rawQuery);
+            String key = key(upstreamPath, params);
+
+            Recording recording = find(source, upstreamPath, params, key);
+            if (recording != null) {
+                replay(exchange, source, recording);
+            } else if (record) {
+                forward(exchange, source, upstreamPath, rawQuery, params, key);
+            } else {
+                System.err.println("No recording: " + source.name().toLowerCase(Locale.ROOT) + " " + key);
+                send(exchange, missStatus, "text/plain", "No recording for " + key, null);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            exchange.close();
+        }
+    }
+
+    private Recording find(LookupCache.Source source, String path, TreeMap<String, List<String>> params, String key) {
+        Recording exact = recordings.get(source.name() + ' ' + key);
+        if (exact != null) return exact;
+        String listParam = listParam(params);
+        if (listParam == null) return null;
+
+        // Every code answered on its own before: merge their products
+        ArrayNode products = HttpTransport.JSON.createArrayNode();
+        for (String code : params.get(listParam).get(0).split(",")) {
+            Recording single = recordings.get(source.name() + ' ' + singleKey(path, params, listParam, code));
+            try {
+                if (single != null) {
+                    JsonNode found = single.status / 100 == 2 ? HttpTransport.JSON.readTree(single.body).get("products") : null;
+                    if (found != null && found.isArray()) products.addAll((ArrayNode) found);
+                    continue;
+                }
+                Recording product = isOpenFoodFactsSearch(source, path)
+                        ? recordings.get(source.name() + ' ' + productKey(params, code)) : null;
+                if (product == null) return null;
+                JsonNode found = product.status / 100 == 2 ? HttpTransport.JSON.readTree(product.body).get("product") : null;
+                if (found != null && found.isObject()) products.add(((ObjectNode) found.deepCopy()).put("code", code));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        Recording merged = new Recording();
+        merged.request = key;
+        merged.status = 200;
+        merged.contentType = "application/json";
+        merged.body = HttpTransport.JSON.createObjectNode().set("products", products).toString();
+        return merged;
+    }
+
+    private void replay(HttpExchange exchange, LookupCache.Source source, Recording recording) throws IOException {
+        Faults f = faults.get(source);
+        if (!f.tryAcquire()) {
+            send(exchange, 429, "text/plain", "Rate limit exceeded",
+                    Long.toString((long) Math.ceil(60 / f.perMinute)));
+            return;
+        }
+        long delay;
+        boolean fail;
+        synchronized (random) {
+            delay = f.latencyMillis + (f.jitterMillis > 0 ? (long) (random.nextDouble() * (f.jitterMillis + 1)) : 0);
+            fail = f.errorRate > 0 && random.nextDouble() < f.errorRate;
+        }
+        Runnable respond = () -> {
+            try {
+                if (fail) send(exchange, 503, "text/plain", "Injected failure", "1");
+                else send(exchange, recording.status, recording.contentType, recording.body, null);
+            } catch (IOException e) {
+                exchange.close(); // client gave up (timeout) before the delay ran out
+            }
+        };
+        if (delay > 0) delayer.schedule(respond, delay, TimeUnit.MILLISECONDS);
+        else respond.run();
+    }
+
+    private void forward(HttpExchange exchange, LookupCache.Source source, String path, String rawQuery,
+                         TreeMap<String, List<String>> params, String key) {
+        String url = upstreams.get(source) + path + (rawQuery != null ? "?" + rawQuery : "");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(20))
+                .header("User-Agent", "Mozilla/5.0")
+                .GET()
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            try {
+                if (error != null) {
+                    send(exchange, 502, "text/plain", "Upstream failed: " + HttpTransport.unwrap(error), null);
+                    return;
+                }
+                String contentType = response.headers().firstValue("Content-Type").orElse("application/octet-stream");
+                // Answers, not transient trouble (429, 5xx), are worth replaying
+                if (response.statusCode() / 100 == 2 || response.statusCode() == 404) {
+                    Recording r = new Recording();
+                    r.request = key;
+                    r.status = response.statusCode();
+                    r.contentType = contentType;
+                    r.body = response.body();
+                    save(source, r);
+                    saveSingles(source, path, params, r);
+                    System.err.println("Recorded " + source.name().toLowerCase(Locale.ROOT) + " " + key
+                            + " (" + r.status + ")");
+                }
+                send(exchange, response.statusCode(), contentType, response.body(), null);
+            } catch (IOException e) {
+                exchange.close();
+            }
+        });
+    }
+
+    // For a multi-code JSON answer, one {"products": [...]} recording per code. A product belongs
+    // to the code one of its fields equals (barcode_number, code), leading zeros ignored.
+    private void saveSingles(LookupCache.Source source, String path, TreeMap<String, List<String>> params, Recording batch) {
+        String listParam = listParam(params);
+        if (listParam == null || batch.status / 100 != 2 && batch.status != 404) return;
+        JsonNode products = null;
+        if (batch.status / 100 == 2) {
+            try {
+                products = HttpTransport.JSON.readTree(batch.body).get("products");
+            } catch (IOException e) {
+                return; // not JSON: nothing to split
+            }
+        }
+        for (String code : params.get(listParam).get(0).split(",")) {
+            ArrayNode mine = HttpTransport.JSON.createArrayNode();
+            if (products != null && products.isArray()) {
+                for (JsonNode product : products) {
+                    if (belongsTo(product, code)) mine.add(product);
+                }
+            }
+            Recording single = new Recording();
+            single.request = singleKey(path, params, listParam, code);
+            single.status = 200;
+            single.contentType = "application/json";
+            ObjectNode body = HttpTransport.JSON.createObjectNode();
+            body.set("products", mine);
+            single.body = body.toString();
+            save(source, single);
+
+            if (isOpenFoodFactsSearch(source, path)) {
+                Recording product = new Recording();
+                product.request = productKey(params, code);
+                product.status = 200;
+                product.contentType = "application/json";
+                ObjectNode productBody = HttpTransport.JSON.createObjectNode();
+                if (mine.size() > 0) {
+                    productBody.put("status", 1);
+                    productBody.set("product", ((ObjectNode) mine.get(0).deepCopy()).without("code"));
+                } else {
+                    productBody.put("status", 0).put("status_verbose", "product not found");
+                }
+                product.body = productBody.toString();
+                save(source, product);
+            }
+        }
+    }
+
+    // OpenFoodFacts answers batches from /api/v2/search and single codes from /api/v0/product,
+    // and which one the app calls depends on batch size: each endpoint's recordings answer the other
+    private static boolean isOpenFoodFactsSearch(LookupCache.Source source, String path) {
+        return source == LookupCache.Source.OPEN_FOOD_FACTS && path.equals("/api/v2/search");
+    }
+
+    // The product request for one code of a search (same fields, without "code")
+    private static String productKey(TreeMap<String, List<String>> searchParams, String code) {
+        TreeMap<String, List<String>> params = new TreeMap<>();
+        List<String> fields = searchParams.get("fields");
+        if (fields != null) params.put("fields", List.of(fields.get(0).replaceFirst("^code,", "")));
+        return key("/api/v0/product/" + code + ".json", params);
+    }
+
+    private static boolean belongsTo(JsonNode product, String code) {
+        String wanted = stripZeros(code);
+        for (JsonNode value : product) {
+            if (value.isTextual() && stripZeros(value.asText()).equals(wanted)) return true;
+        }
+        return false;
+    }
+
+    private static String stripZeros(String code) {
+        int i = 0;
+        while (i < code.length() - 1 && code.charAt(i) == '0') i++;
+        return code.substring(i);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body, String retryAfter)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (retryAfter != null) exchange.getResponseHeaders().set("Retry-After", retryAfter);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static LookupCache.Source sourceNamed(String name) {
+        for (LookupCache.Source source : LookupCache.Source.values()) {
+            if (source.name().toLowerCase(Locale.ROOT).equals(name)) return source;
+        }
+        return null;
+    }
+
+    private static String sourceNames() {
+        StringBuilder sb = new StringBuilder();
+        for (LookupCache.Source source : LookupCache.Source.values()) {
+            if (sb.length() > 0) sb.append('|');
+            sb.append(source.name().toLowerCase(Locale.ROOT));
+        }
+        return sb.toString();
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    // "N" for every source, or "source=N,source=N" (a bare N among them sets the rest)
+    private static Map<LookupCache.Source, String> perSource(String spec, Map<LookupCache.Source, String> into) {
+        for (String part : spec.split(",")) {
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                for (LookupCache.Source source : LookupCache.Source.values()) into.putIfAbsent(source, part.trim());
+            } else {
+                LookupCache.Source source = sourceNamed(part.substring(0, eq).trim());
+                if (source == null) throw new IllegalArgumentException("Unknown source: " + part.substring(0, eq));
+                into.put(source, part.substring(eq + 1).trim());
+            }
+        }
+        return into;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String mode = null;
+        File dir = new File(System.getProperty("user.home") + File.separator + ".barcode-scanner"
+                + File.separator + "recordings");
+        int port = 8090;
+        int missStatus = 404;
+        long seed = 1;
+        Map<LookupCache.Source, String> latency = new EnumMap<>(LookupCache.Source.class);
+        Map<LookupCache.Source, String> jitter = new EnumMap<>(LookupCache.Source.class);
+        Map<LookupCache.Source, String> errors = new EnumMap<>(LookupCache.Source.class);
+        Map<LookupCache.Source, String> limits = new EnumMap<>(LookupCache.Source.class);
+        Map<LookupCache.Source, String> upstreams = new EnumMap<>(LookupCache.Source.class);
+        Map<LookupCache.Source, Faults> faults = new EnumMap<>(LookupCache.Source.class);
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase(Locale.ROOT)) {
+                    case "--dir": dir = new File(args[++i]); break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--miss-status": missStatus = Integer.parseInt(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--latency-ms": perSource(args[++i], latency); break;
+                    case "--jitter-ms": perSource(args[++i], jitter); break;
+                    case "--error-rate": perSource(args[++i], errors); break;
+                    case "--rate-limit": perSource(args[++i], limits); break;
+                    case "--upstream": perSource(args[++i], upstreams); break;
+                    case "record":
+                    case "replay": mode = args[i].toLowerCase(Locale.ROOT); break;
+                    default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+            }
+            for (LookupCache.Source source : LookupCache.Source.values()) {
+                faults.put(source, new Faults(Long.parseLong(latency.getOrDefault(source, "0")),
+                        Long.parseLong(jitter.getOrDefault(source, "0")),
+                        Double.parseDouble(errors.getOrDefault(source, "0")),
+                        Double.parseDouble(limits.getOrDefault(source, "0"))));
+                upstreams.putIfAbsent(source, source.defaultBaseUrl);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        if (mode == null) {
+            System.err.println("Usage: ReplayServer record|replay [--dir DIR] [--port 8090] [--latency-ms N] "
+                    + "[--jitter-ms N] [--error-rate F] [--rate-limit N/min] [--miss-status 404] [--seed 1] "
+                    + "[--upstream source=URL]");
+            System.exit(1);
+        }
+
+        ReplayServer replayServer = new ReplayServer(mode.equals("record"), dir, port, missStatus, faults, upstreams, seed);
+        replayServer.start();
+        System.err.println("ReplayServer (" + mode + ", " + replayServer.recordings.size() + " recordings in " + dir
+                + ") listening on http://localhost:" + replayServer.port());
+        System.err.println("Point the app at it with:");
+        for (LookupCache.Source source : LookupCache.Source.values()) {
+            String name = source.name().toLowerCase(Locale.ROOT);
+            System.err.println("  -Dupstream." + name + ".baseUrl=http://localhost:" + replayServer.port() + "/" + name);
+        }
+    }
+}
@@ -0,0 +1,1116 @@
+/**
+ * ScanHistory.java
+ *
+ * Durable log of every scan (barcode, product, manufacturer, EthicalConsumer match), so a
+ * product scanned before can be checked again without a re-scan or any network call:
+ * "latest result for barcode Y", "every scan of barcode Y", "every scan of brand X".
+ *
+ * - Append-only segment files seg-NNNNNN.log: [int magic][int firstSeq], then records
+ *   [int length][int crc32][long timestampMillis][UTF-8 fields joined by \u001F]. A torn or
+ *   corrupt tail (crash mid-write) is cut off at the last intact record on open.
+ * - Group commit: append() only queues the encoded record. One writer thread writes whatever
+ *   has queued up with one write and one fsync, then completes the callers' futures, so a
+ *   burst of scans shares a single fsync.
+ * - Segments roll at -DscanHistory.segmentMB (default 64). A sealed segment gets a
+ *   seg-NNNNNN.idx, memory-mapped: sorted barcode keys → record offsets, then sorted
+ *   manufacturer keys → offsets. Barcode keys are the GTIN (Gtin.parse, so UPC-A and its EAN-13
+ *   form match) or a 64-bit hash of the text for non-retail codes; manufacturer keys hash the
+ *   BrandIndex-normalised name. Hits are checked against the record itself. The active
+ *   segment keeps the same keys in primitive arrays, scanned newest first.
+ * - Compaction merges the sealed segments into one, optionally dropping scans older than
+ *   --max-age-days or past the newest --keep-per-barcode of each barcode. The merged file takes
+ *   the newest input's name and records the oldest input's sequence in its header, so inputs
+ *   left behind by a crash are recognised and deleted on the next open. It runs in the
+ *   background once -DscanHistory.compactAt (default 8) segments are sealed.
+ *
+ * One process writes (enforced with a lock file); the CLI queries open the files read-only.
+ *
+ * Usage:
+ * java -cp "..." ScanHistory latest <barcode>
+ * java -cp "..." ScanHistory barcode <barcode> [--limit 100]
+ * java -cp "..." ScanHistory brand <manufacturer> [--limit 100]
+ * java -cp "..." ScanHistory compact [--max-age-days D] [--keep-per-barcode N]
+ * java -cp "..." ScanHistory stats
+ * java -cp "..." ScanHistory bench [--count 200000] [--threads 4]
+ *
+ * History directory: ~/.barcode-scanner/history (override with -DscanHistory.dir=...)
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+public final class ScanHistory implements Closeable {
+
+    private static final int LOG_MAGIC = 0x5343484C;   // "SCHL"
+    private static final int INDEX_MAGIC = 0x53434858; // "SCHX"
+    private static final int LOG_HEADER = 8;           // [int magic][int firstSeq]
+    private static final int INDEX_HEADER = 24;        // [int magic][int count][int manufacturerCount][int 0][long logLength]
+    private static final int RECORD_HEADER = 16;       // [int length][int crc32][long timestamp]
+    private static final int MAX_RECORD = 1 << 20;
+    private static final char FIELD_SEPARATOR = '\u001F';
+    private static final String SEGMENT_PREFIX = "seg-";
+
+    private static final long SEGMENT_BYTES = Long.getLong("scanHistory.segmentMB", 64) << 20;
+    private static final int COMPACT_AT = Integer.getInteger("scanHistory.compactAt", 8);
+    // fsync each group; false leaves flushing to the OS (a crash may lose the last second)
+    private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("scanHistory.sync", "true"));
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int MAX_GROUP = 8192;
+
+    static final long NO_KEY = 0; // manufacturer key of a scan without one
+
+    private final File dir;
+    private final boolean writable;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock; oldest first
+    private List<Segment> sealed = new ArrayList<>();
+    private FileChannel activeChannel;
+    private int activeSeq;
+    private IndexBuilder activeIndex = new IndexBuilder();
+    private long activeSize; // writer thread only once open
+
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private ByteBuffer groupBuffer; // writer thread only
+    private volatile boolean closed;
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+
+    private final Object compactionLock = new Object();
+    private final ExecutorService compactor;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+
+    private static volatile ScanHistory shared;
+    private static volatile boolean sharedLoaded;
+
+    // ---------------------------------------------------------
+    // 1. SCAN RECORD
+    // ---------------------------------------------------------
+    public static final class Scan {
+        public final long timestamp;
+        public final String barcode;
+        public final String format;
+        public final String productName;
+        public final String brands;
+        public final String nutriscore;
+        public final String manufacturer;
+        public final String ethical;
+        public final String source; // image path, or null
+
+        public Scan(long timestamp, String barcode, String format, String productName, String brands,
+                    String nutriscore, String manufacturer, String ethical, String source) {
+            this.timestamp = timestamp;
+            this.barcode = barcode;
+            this.format = format;
+            this.productName = productName;
+            this.brands = brands;
+            this.nutriscore = nutriscore;
+            this.manufacturer = manufacturer;
+            this.ethical = ethical;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+                    .truncatedTo(ChronoUnit.SECONDS)).append("  ").append(barcode);
+            if (format != null) sb.append(" (").append(format).append(')');
+            if (productName != null || brands != null) {
+                sb.append("  ").append(productName).append(" | ").append(brands);
+                if (nutriscore != null) sb.append(" | nutri-score ").append(nutriscore);
+            }
+            sb.append("  manufacturer: ").append(manufacturer);
+            if (ethical != null) sb.append("  ethical: ").append(ethical);
+            if (source != null) sb.append("  [").append(source).append(']');
+            return sb.toString();
+        }
+    }
+
+    static byte[] encode(Scan scan) {
+        String[] fields = {
+                scan.barcode, scan.format, scan.productName, scan.brands, scan.nutriscore,
+                scan.manufacturer, scan.ethical, scan.source
+        };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(FIELD_SEPARATOR);
+            if (fields[i] != null) sb.append(fields[i].replace(FIELD_SEPARATOR, ' '));
+        }
+        byte[] payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+        if (RECORD_HEADER + payload.length > MAX_RECORD) throw new IllegalArgumentException("Scan record too large");
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.putInt(RECORD_HEADER - 4 + payload.length).putInt(0).putLong(scan.timestamp).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    // Scan from a whole record (length prefix included), or null if the checksum doesn't match
+    static Scan decode(byte[] record, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+        buffer.getInt();
+        int expected = buffer.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, length - 8);
+        if ((int) crc.getValue() != expected) return null;
+        long timestamp = buffer.getLong();
+
+        String[] f = new String(record, RECORD_HEADER, length - RECORD_HEADER, StandardCharsets.UTF_8)
+                .split(String.valueOf(FIELD_SEPARATOR), -1);
+        return new Scan(timestamp, field(f, 0), field(f, 1), field(f, 2), field(f, 3), field(f, 4),
+                field(f, 5), field(f, 6), field(f, 7));
+    }
+
+    private static String field(String[] fields, int i) {
+        return i < fields.length && !fields[i].isEmpty() ? fields[i] : null;
+    }
+
+    // GTIN-14 value for retail codes; otherwise a hash of the text, kept negative so the two never collide
+    static long barcodeKey(String barcode) {
+        long gtin = Gtin.parse(barcode);
+        return gtin != Gtin.INVALID ? gtin : hash(barcode) | Long.MIN_VALUE;
+    }
+
+    static long manufacturerKey(String manufacturer) {
+        String normalized = BrandIndex.normalize(manufacturer);
+        if (normalized.isEmpty()) return NO_KEY;
+        long h = hash(normalized);
+        return h == NO_KEY ? 1 : h;
+    }
+
+    // 64-bit FNV-1a over the UTF-16 chars
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // ---------------------------------------------------------
+    // 2. OPEN / SHARED INSTANCE
+    // ---------------------------------------------------------
+    public static File defaultDir() {
+        return new File(System.getProperty("scanHistory.dir",
+                System.getProperty("user.home") + File.separator + ".barcode-scanner" + File.separator + "history"));
+    }
+
+    // The process-wide writable history, or null if it can't be opened (e.g. another process has it)
+    public static ScanHistory shared() {
+        if (!sharedLoaded) {
+            synchronized (ScanHistory.class) {
+                if (!sharedLoaded) {
+                    try {
+                        ScanHistory history = open(defaultDir());
+                        // Queued scans reach the disk before the JVM exits
+                        Runtime.getRuntime().addShutdownHook(new Thread(history::closeQuietly, "scan-history-close"));
+                        shared = history;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    sharedLoaded = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    public static ScanHistory open(File dir) throws IOException {
+        return new ScanHistory(dir, true);
+    }
+
+    // Queries only: no lock, no recovery, and scans appended after opening are not seen
+    public static ScanHistory openReadOnly(File dir) throws IOException {
+        return new ScanHistory(dir, false);
+    }
+
+    private ScanHistory(File dir, boolean writable) throws IOException {
+        this.dir = dir;
+        this.writable = writable;
+        if (writable) {
+            dir.mkdirs();
+            lockChannel = FileChannel.open(new File(dir, "lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock held;
+            try {
+                held = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                held = null; // already open in this JVM
+            }
+            fileLock = held;
+            if (fileLock == null) {
+                lockChannel.close();
+                throw new IOException("Scan history in use by another process: " + dir);
+            }
+        } else {
+            lockChannel = null;
+            fileLock = null;
+        }
+
+        try {
+            List<File> logs = liveLogs(dir, writable);
+            for (int i = 0; i < logs.size() - 1; i++) {
+                sealed.add(new Segment(logs.get(i), writable));
+            }
+            if (logs.isEmpty()) {
+                if (writable) createActive(1);
+            } else {
+                openActive(logs.get(logs.size() - 1));
+            }
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+
+        if (writable) {
+            writer = new Thread(this::writeLoop, "scan-history-writer");
+            writer.setDaemon(true);
+            writer.start();
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "scan-history-compact");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        } else {
+            writer = null;
+            compactor = null;
+        }
+    }
+
+    // Segment logs in sequence order, minus inputs of a compaction that already replaced them
+    private static List<File> liveLogs(File dir, boolean writable) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) || name.endsWith(".tmp"));
+        if (files == null) return new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                if (writable) file.delete(); // half-written seal or compaction
+            } else if (file.getName().endsWith(".log")) {
+                logs.add(file);
+            }
+        }
+        Collections.sort(logs); // zero-padded sequence numbers sort chronologically
+
+        List<File> live = new ArrayList<>();
+        int coveredFrom = Integer.MAX_VALUE;
+        for (int i = logs.size() - 1; i >= 0; i--) {
+            File log = logs.get(i);
+            if (sequenceOf(log) >= coveredFrom) {
+                if (writable) {
+                    log.delete();
+                    indexFileOf(log).delete();
+                }
+                continue;
+            }
+            coveredFrom = Math.min(coveredFrom, firstSequenceOf(log));
+            live.add(0, log);
+        }
+        return live;
+    }
+
+    private static int sequenceOf(File log) {
+        String name = log.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - 4));
+    }
+
+    // Lowest segment sequence the file covers: its own, or the oldest input if it's a compaction output
+    private static int firstSequenceOf(File log) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(log))) {
+            if (log.length() < LOG_HEADER || in.readInt() != LOG_MAGIC) return sequenceOf(log);
+            return in.readInt();
+        }
+    }
+
+    private static File logFile(File dir, int seq) {
+        return new File(dir, String.format(Locale.ROOT, "%s%06d.log", SEGMENT_PREFIX, seq));
+    }
+
+    private static File indexFileOf(File log) {
+        String path = log.getPath();
+        return new File(path.substring(0, path.length() - 4) + ".idx");
+    }
+
+    private void createActive(int seq) throws IOException {
+        FileChannel channel = FileChannel.open(logFile(dir, seq).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).putInt(seq);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        activeChannel = channel;
+        activeSeq = seq;
+        activeIndex = new IndexBuilder();
+        activeSize = LOG_HEADER;
+    }
+
+    // Rebuilds the active segment's in-memory keys; a writer also cuts off a torn tail
+    private void openActive(File log) throws IOException {
+        int seq = sequenceOf(log);
+        if (log.length() < LOG_HEADER) {
+            if (writable) createActive(seq);
+            return;
+        }
+        IndexBuilder index = new IndexBuilder();
+        long end = readLog(log, (offset, scan, record, length) ->
+                index.add(barcodeKey(scan.barcode), manufacturerKey(scan.manufacturer), offset));
+        activeChannel = writable
+                ? FileChannel.open(log.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(log.toPath());
+        if (writable && activeChannel.size() > end) {
+            activeChannel.truncate(end);
+            activeChannel.force(true);
+        }
+        activeSeq = seq;
+        activeIndex = index;
+        activeSize = end;
+    }
+
+    // ---------------------------------------------------------
+    // 3. APPEND (group commit)
+    // ---------------------------------------------------------
+    private static final class Pending {
+        final byte[] record; // null = flush marker
+        final long barcodeKey;
+        final long manufacturerKey;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] record, long barcodeKey, long manufacturerKey) {
+            this.record = record;
+            this.barcodeKey = barcodeKey;
+            this.manufacturerKey = manufacturerKey;
+        }
+    }
+
+    // Queues a scan (blocking while the queue is full); the future completes once its group
+    // is written and fsynced
+    public CompletableFuture<Void> append(Scan scan) {
+        return enqueue(new Pending(encode(scan), barcodeKey(scan.barcode), manufacturerKey(scan.manufacturer)));
+    }
+
+    // Waits until everything queued so far is on disk
+    public void flush() {
+        enqueue(new Pending(null, 0, 0)).join();
+    }
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (!writable || closed) {
+            pending.done.completeExceptionally(new IllegalStateException("Scan history is closed or read-only"));
+            return pending.done;
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.done.completeExceptionally(e);
+        }
+        return pending.done;
+    }
+
+    private void writeLoop() {
+        List<Pending> group = new ArrayList<>(MAX_GROUP);
+        while (true) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group, MAX_GROUP - 1);
+            try {
+                writeGroup(group);
+                for (Pending p : group) p.done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                for (Pending p : group) p.done.completeExceptionally(e);
+            }
+            group.clear();
+
+            // The group is durable either way; a failed roll is retried after the next one
+            if (activeSize >= SEGMENT_BYTES) {
+                try {
+                    roll();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        // Closing: whatever was queued after the final flush is not written
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Pending p : left) p.done.completeExceptionally(new IllegalStateException("Scan history closed"));
+    }
+
+    private void writeGroup(List<Pending> group) throws IOException {
+        int bytes = 0;
+        int records = 0;
+        for (Pending p : group) {
+            if (p.record == null) continue;
+            bytes += p.record.length;
+            records++;
+        }
+        if (records == 0) return;
+
+        if (groupBuffer == null || groupBuffer.capacity() < bytes) {
+            groupBuffer = ByteBuffer.allocateDirect(Math.max(1 << 20, Integer.highestOneBit(bytes) << 1));
+        }
+        ByteBuffer buffer = groupBuffer;
+        buffer.clear();
+        for (Pending p : group) if (p.record != null) buffer.put(p.record);
+        buffer.flip();
+
+        long start = activeSize;
+        while (buffer.hasRemaining()) activeChannel.write(buffer, start + buffer.position());
+        if (SYNC) activeChannel.force(false);
+
+        // Publish: queries see the group only once it is durable
+        lock.writeLock().lock();
+        try {
+            long offset = start;
+            for (Pending p : group) {
+                if (p.record == null) continue;
+                activeIndex.add(p.barcodeKey, p.manufacturerKey, offset);
+                offset += p.record.length;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        activeSize = start + bytes;
+        appended.addAndGet(records);
+        groups.incrementAndGet();
+    }
+
+    // Seals the active segment behind its index and starts the next one
+    private void roll() throws IOException {
+        File log = logFile(dir, activeSeq);
+        activeChannel.force(true);
+        activeIndex.write(indexFileOf(log), activeSize);
+        Segment segment = new Segment(log, true);
+
+        FileChannel old = activeChannel;
+        int sealedCount;
+        lock.writeLock().lock();
+        try {
+            // Next active segment first: if that fails, the old one stays active and a later
+            // roll seals it once, instead of publishing it as sealed twice
+            createActive(activeSeq + 1);
+            List<Segment> next = new ArrayList<>(sealed);
+            next.add(segment);
+            sealed = next;
+            sealedCount = next.size();
+        } catch (IOException | RuntimeException e) {
+            segment.close();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        old.close();
+
+        if (sealedCount >= COMPACT_AT) {
+            long maxAgeDays = Long.getLong("scanHistory.maxAgeDays", 0);
+            int keepPerBarcode = Integer.getInteger("scanHistory.keepPerBarcode", 0);
+            compactor.execute(() -> {
+                try {
+                    compact(maxAgeDays, keepPerBarcode);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. QUERIES (no network, newest first)
+    // ---------------------------------------------------------
+    public Scan latest(String barcode) {
+        List<Scan> scans = byBarcode(barcode, 1);
+        return scans.isEmpty() ? null : scans.get(0);
+    }
+
+    public List<Scan> byBarcode(String barcode, int limit) {
+        long key = barcodeKey(barcode);
+        // A GTIN key is the code itself; a hashed one has to be confirmed
+        Predicate<Scan> matches = key >= 0 ? scan -> true : scan -> barcode.equals(scan.barcode);
+        return find(key, false, matches, limit);
+    }
+
+    public List<Scan> byManufacturer(String manufacturer, int limit) {
+        long key = manufacturerKey(manufacturer);
+        if (key == NO_KEY) return new ArrayList<>();
+        String normalized = BrandIndex.normalize(manufacturer);
+        return find(key, true, scan -> normalized.equals(BrandIndex.normalize(scan.manufacturer)), limit);
+    }
+
+    private List<Scan> find(long key, boolean byManufacturer, Predicate<Scan> matches, int limit) {
+        List<Scan> out = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IndexBuilder active = activeIndex;
+            long[] keys = byManufacturer ? active.manufacturerKeys : active.barcodeKeys;
+            for (int i = active.count - 1; i >= 0 && out.size() < limit; i--) {
+                if (keys[i] != key) continue;
+                Scan scan = readRecord(activeChannel, active.offsets[i]);
+                if (matches.test(scan)) out.add(scan);
+            }
+            for (int s = sealed.size() - 1; s >= 0 && out.size() < limit; s--) {
+                sealed.get(s).find(key, byManufacturer, matches, limit, out);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            long count = activeIndex.count;
+            for (Segment segment : sealed) count += segment.count;
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int sealedSegments() {
+        lock.readLock().lock();
+        try {
+            return sealed.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String stats() {
+        lock.readLock().lock();
+        try {
+            long bytes = activeSize;
+            for (Segment segment : sealed) bytes += segment.length;
+            return String.format(Locale.ROOT, "segments=%d scans=%d bytes=%d appended=%d groups=%d",
+                    sealed.size() + 1, size(), bytes, appended.get(), groups.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Scan readRecord(FileChannel channel, long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        int n = length.getInt(0);
+        if (n < RECORD_HEADER - 4 || n > MAX_RECORD) throw new IOException("Corrupt scan history record at " + offset);
+        byte[] record = new byte[4 + n];
+        ByteBuffer buffer = ByteBuffer.wrap(record).putInt(n);
+        readFully(channel, buffer, offset + 4);
+        Scan scan = decode(record, record.length);
+        if (scan == null) throw new IOException("Checksum mismatch in scan history record at " + offset);
+        return scan;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Truncated scan history segment");
+            position += n;
+        }
+    }
+
+    interface RecordVisitor {
+        void accept(long offset, Scan scan, byte[] record, int length) throws IOException;
+    }
+
+    // Visits every intact record in order and returns the offset just past the last one
+    static long readLog(File log, RecordVisitor visitor) throws IOException {
+        long fileLength = log.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log), 1 << 16))) {
+            if (fileLength < LOG_HEADER || in.readInt() != LOG_MAGIC) throw new IOException("Not a scan history segment: " + log);
+            in.readInt();
+            long offset = LOG_HEADER;
+            byte[] record = new byte[1024];
+            while (offset + 4 <= fileLength) {
+                int n = in.readInt();
+                if (n < RECORD_HEADER - 4 || n > MAX_RECORD || offset + 4 + n > fileLength) break; // torn tail
+                if (record.length < 4 + n) record = new byte[Integer.highestOneBit(4 + n) << 1];
+                ByteBuffer.wrap(record).putInt(n);
+                in.readFully(record, 4, n);
+                Scan scan = decode(record, 4 + n);
+                if (scan == null) break; // corrupt: nothing after it can be trusted
+                visitor.accept(offset, scan, record, 4 + n);
+                offset += 4 + n;
+            }
+            return offset;
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 5. INDEXES
+    // ---------------------------------------------------------
+    // Primitive key/offset arrays in append order: the active segment's index, and what every
+    // .idx file is written from
+    static final class IndexBuilder {
+        long[] barcodeKeys = new long[1024];
+        long[] manufacturerKeys = new long[1024];
+        long[] offsets = new long[1024];
+        int count;
+
+        void add(long barcodeKey, long manufacturerKey, long offset) {
+            if (count == offsets.length) {
+                barcodeKeys = Arrays.copyOf(barcodeKeys, count * 2);
+                manufacturerKeys = Arrays.copyOf(manufacturerKeys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            barcodeKeys[count] = barcodeKey;
+            manufacturerKeys[count] = manufacturerKey;
+            offsets[count] = offset;
+            count++;
+        }
+
+        // Both key tables sorted by (key, offset), so equal keys end with the newest record
+        void write(File target, long logLength) throws IOException {
+            long[] bKeys = Arrays.copyOf(barcodeKeys, count);
+            long[] bOffsets = Arrays.copyOf(offsets, count);
+            OfflineProductIndex.SegmentWriter.sortPairs(bKeys, bOffsets, 0, count - 1);
+
+            long[] mKeys = new long[count];
+            long[] mOffsets = new long[count];
+            int m = 0;
+            for (int i = 0; i < count; i++) {
+                if (manufacturerKeys[i] == NO_KEY) continue;
+                mKeys[m] = manufacturerKeys[i];
+                mOffsets[m++] = offsets[i];
+            }
+            OfflineProductIndex.SegmentWriter.sortPairs(mKeys, mOffsets, 0, m - 1);
+
+            ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER + 16 * (count + m));
+            index.putInt(INDEX_MAGIC).putInt(count).putInt(m).putInt(0).putLong(logLength);
+            for (int i = 0; i < count; i++) index.putLong(bKeys[i]);
+            for (int i = 0; i < count; i++) index.putLong(bOffsets[i]);
+            for (int i = 0; i < m; i++) index.putLong(mKeys[i]);
+            for (int i = 0; i < m; i++) index.putLong(mOffsets[i]);
+            index.flip();
+
+            File tmp = new File(target.getPath() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (index.hasRemaining()) out.write(index);
+                out.force(true);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // One sealed segment: log read with positional reads, index mapped
+    static final class Segment implements Closeable {
+        final File log;
+        final int seq;
+        final int firstSeq;
+        final long length;
+        final int count;
+        private final FileChannel channel;
+        private final LongBuffer barcodeKeys;
+        private final LongBuffer barcodeOffsets;
+        private final LongBuffer manufacturerKeys;
+        private final LongBuffer manufacturerOffsets;
+
+        Segment(File log, boolean writable) throws IOException {
+            this.log = log;
+            this.seq = sequenceOf(log);
+            this.firstSeq = firstSequenceOf(log);
+            this.channel = FileChannel.open(log.toPath());
+            try {
+                this.length = channel.size();
+                MappedByteBuffer map = mapIndex(indexFileOf(log), length);
+                if (map == null) {
+                    // Missing or stale index (crash while sealing or compacting): rebuild it from the log
+                    IndexBuilder builder = new IndexBuilder();
+                    readLog(log, (offset, scan, record, n) ->
+                            builder.add(barcodeKey(scan.barcode), manufacturerKey(scan.manufacturer), offset));
+                    File target = writable ? indexFileOf(log) : File.createTempFile("scan-history", ".idx");
+                    builder.write(target, length);
+                    map = mapIndex(target, length);
+                    if (!writable) target.delete();
+                    if (map == null) throw new IOException("Could not index scan history segment: " + log);
+                }
+                this.count = map.getInt(4);
+                int m = map.getInt(8);
+                this.barcodeKeys = map.slice(INDEX_HEADER, 8 * count).asLongBuffer();
+                this.barcodeOffsets = map.slice(INDEX_HEADER + 8 * count, 8 * count).asLongBuffer();
+                this.manufacturerKeys = map.slice(INDEX_HEADER + 16 * count, 8 * m).asLongBuffer();
+                this.manufacturerOffsets = map.slice(INDEX_HEADER + 16 * count + 8 * m, 8 * m).asLongBuffer();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // The mapped index, or null unless it is complete and was built for this log length
+        private static MappedByteBuffer mapIndex(File index, long logLength) throws IOException {
+            if (!index.isFile() || index.length() < INDEX_HEADER) return null;
+            try (FileChannel channel = FileChannel.open(index.toPath())) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                long count = map.getInt(4);
+                long m = map.getInt(8);
+                if (map.getInt(0) != INDEX_MAGIC || map.getLong(16) != logLength
+                        || channel.size() != INDEX_HEADER + 16 * (count + m)) return null;
+                return map;
+            }
+        }
+
+        // Appends matches newest first: the last of a run of equal keys has the highest offset
+        void find(long key, boolean byManufacturer, Predicate<Scan> matches, int limit, List<Scan> out) throws IOException {
+            LongBuffer keys = byManufacturer ? manufacturerKeys : barcodeKeys;
+            LongBuffer offsets = byManufacturer ? manufacturerOffsets : barcodeOffsets;
+            int lo = 0;
+            int hi = keys.limit() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys.get(mid) <= key) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            for (int i = hi; i >= 0 && keys.get(i) == key && out.size() < limit; i--) {
+                Scan scan = readRecord(channel, offsets.get(i));
+                if (matches.test(scan)) out.add(scan);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 6. COMPACTION (sealed segments → one)
+    // ---------------------------------------------------------
+    // Merges every sealed segment, dropping scans older than maxAgeDays and all but the newest
+    // keepPerBarcode of each barcode (0 = no limit). Appends carry on meanwhile. Returns the
+    // number of scans kept.
+    public long compact(long maxAgeDays, int keepPerBarcode) throws IOException {
+        if (!writable) throw new IOException("Scan history opened read-only");
+        synchronized (compactionLock) {
+            List<Segment> inputs;
+            lock.readLock().lock();
+            try {
+                inputs = new ArrayList<>(sealed);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (inputs.isEmpty() || (inputs.size() == 1 && maxAgeDays <= 0 && keepPerBarcode <= 0)) {
+                return inputs.isEmpty() ? 0 : inputs.get(0).count;
+            }
+
+            long cutoff = maxAgeDays > 0 ? System.currentTimeMillis() - maxAgeDays * 86_400_000L : Long.MIN_VALUE;
+            long[][] dropped = keepPerBarcode > 0 ? overLimit(inputs, keepPerBarcode) : null;
+
+            Segment newest = inputs.get(inputs.size() - 1);
+            File logTmp = new File(newest.log.getPath() + ".compact.tmp");
+            IndexBuilder index = new IndexBuilder();
+            long length;
+            try (FileOutputStream file = new FileOutputStream(logTmp);
+                 OutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+                out.write(ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).putInt(inputs.get(0).firstSeq).array());
+                long[] position = {LOG_HEADER};
+                for (int s = 0; s < inputs.size(); s++) {
+                    long[] skip = dropped != null ? dropped[s] : null;
+                    readLog(inputs.get(s).log, (offset, scan, record, n) -> {
+                        if (scan.timestamp < cutoff) return;
+                        if (skip != null && Arrays.binarySearch(skip, offset) >= 0) return;
+                        out.write(record, 0, n);
+                        index.add(barcodeKey(scan.barcode), manufacturerKey(scan.manufacturer), position[0]);
+                        position[0] += n;
+                    });
+                }
+                out.flush();
+                file.getFD().sync();
+                length = position[0];
+            }
+
+            // Log first: a crash before the index moves leaves a stale index, which is rebuilt
+            File idxTmp = new File(newest.log.getPath() + ".compact.idx.tmp");
+            index.write(idxTmp, length);
+            Files.move(logTmp.toPath(), newest.log.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(idxTmp.toPath(), indexFileOf(newest.log).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Segment merged = new Segment(newest.log, true);
+
+            lock.writeLock().lock();
+            try {
+                List<Segment> next = new ArrayList<>();
+                next.add(merged);
+                for (Segment segment : sealed) if (!inputs.contains(segment)) next.add(segment);
+                sealed = next;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (Segment input : inputs) {
+                input.close();
+                if (input != newest) {
+                    input.log.delete();
+                    indexFileOf(input.log).delete();
+                }
+            }
+            return index.count;
+        }
+    }
+
+    // Per input segment, the sorted offsets of scans beyond the newest keep of their barcode.
+    // Counting starts at the active segment, so scans written since still count as newer.
+    private long[][] overLimit(List<Segment> inputs, int keep) {
+        Map<Long, Integer> seen = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int i = activeIndex.count - 1; i >= 0; i--) seen.merge(activeIndex.barcodeKeys[i], 1, Integer::sum);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long[][] dropped = new long[inputs.size()][];
+        for (int s = inputs.size() - 1; s >= 0; s--) {
+            Segment segment = inputs.get(s);
+            long[] drop = new long[segment.count];
+            int d = 0;
+            // Runs of equal keys, walked from their newest record back
+            int end = segment.count - 1;
+            while (end >= 0) {
+                long key = segment.barcodeKeys.get(end);
+                int start = end;
+                while (start > 0 && segment.barcodeKeys.get(start - 1) == key) start--;
+                int already = seen.getOrDefault(key, 0);
+                for (int i = end; i >= start; i--) {
+                    if (++already > keep) drop[d++] = segment.barcodeOffsets.get(i);
+                }
+                seen.put(key, already);
+                end = start - 1;
+            }
+            long[] sorted = Arrays.copyOf(drop, d);
+            Arrays.sort(sorted);
+            dropped[s] = sorted;
+        }
+        return dropped;
+    }
+
+    // ---------------------------------------------------------
+    // 7. CLOSE
+    // ---------------------------------------------------------
+    @Override
+    public void close() throws IOException {
+        if (writer != null && !closed) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            closed = true;
+            writer.interrupt();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compactor.shutdown();
+        }
+        closed = true;
+        synchronized (compactionLock) {
+            closeFiles();
+        }
+    }
+
+    void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : sealed) segment.close();
+            if (activeChannel != null) activeChannel.close();
+            if (fileLock != null) fileLock.release();
+            if (lockChannel != null) lockChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        String argument = args.length > 1 && !args[1].startsWith("--") ? args[1] : null;
+        int limit = 100;
+        long maxAgeDays = 0;
+        int keepPerBarcode = 0;
+        int count = 200_000;
+        int threads = 4;
+        try {
+            for (int i = argument != null ? 2 : 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--limit": limit = Integer.parseInt(args[++i]); break;
+                    case "--max-age-days": maxAgeDays = Long.parseLong(args[++i]); break;
+                    case "--keep-per-barcode": keepPerBarcode = Integer.parseInt(args[++i]); break;
+                    case "--count": count = Integer.parseInt(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        File dir = defaultDir();
+        if ((command.equals("latest") || command.equals("barcode") || command.equals("brand")) && argument != null) {
+            try (ScanHistory history = openReadOnly(dir)) {
+                long start = System.nanoTime();
+                List<Scan> scans = command.equals("brand") ? history.byManufacturer(argument, limit)
+                        : history.byBarcode(argument, command.equals("latest") ? 1 : limit);
+                long took = System.nanoTime() - start;
+                for (Scan scan : scans) System.out.println(scan);
+                System.out.printf(Locale.ROOT, "%d scan(s) (%.3f ms)%n", scans.size(), took / 1e6);
+            }
+        } else if (command.equals("compact")) {
+            try (ScanHistory history = open(dir)) {
+                if (history.sealedSegments() == 0) {
+                    System.out.println("Nothing to compact: all scans are still in the active segment (" + history.stats() + ")");
+                    return;
+                }
+                long start = System.nanoTime();
+                long kept = history.compact(maxAgeDays, keepPerBarcode);
+                System.out.printf(Locale.ROOT, "Compacted to %d scans in %.1f s (%s)%n", kept, (System.nanoTime() - start) / 1e9,
+                        history.stats());
+            }
+        } else if (command.equals("stats")) {
+            try (ScanHistory history = openReadOnly(dir)) {
+                System.out.println(dir + ": " + history.stats());
+            }
+        } else if (command.equals("bench")) {
+            bench(count, Math.max(1, threads));
+        } else {
+            System.err.println("Usage: ScanHistory latest <barcode> | barcode <barcode> [--limit N] | brand <manufacturer> [--limit N]"
+                    + " | compact [--max-age-days D] [--keep-per-barcode N] | stats | bench [--count N] [--threads N]");
+            System.exit(1);
+        }
+    }
+
+    // Synthetic load in a scratch directory: batch append rate, then query latency
+    private static void bench(int count, int threads) throws Exception {
+        File dir = Files.createTempDirectory("scan-history-bench").toFile();
+        String[] brands = new String[500];
+        for (int i = 0; i < brands.length; i++) brands[i] = "Brand " + i + " S.A.";
+        String[] barcodes = new String[20_000];
+        Random random = new Random(1);
+        for (int i = 0; i < barcodes.length; i++) {
+            long body = 100_000_000_000L + (random.nextLong() & Long.MAX_VALUE) % 900_000_000_000L;
+            barcodes[i] = Long.toString(body) + Gtin.checkDigit(body);
+        }
+
+        try (ScanHistory history = open(dir)) {
+            long start = System.nanoTime();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = first; i < count; i += threads) {
+                        String barcode = barcodes[i % barcodes.length];
+                        String brand = brands[(barcode.hashCode() & Integer.MAX_VALUE) % brands.length];
+                        history.append(new Scan(System.currentTimeMillis(), barcode, "EAN_13", "Product " + i, brand,
+                                "c", brand, brand + " -> https://www.ethicalconsumer.org/company/" + i, null));
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+            history.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "Appended %d scans in %.2f s: %.0f scans/s, %d group commits (%s)%n",
+                    count, seconds, count / seconds, history.groups.get(), history.stats());
+
+            benchQueries(history, barcodes, brands, "before compaction");
+            start = System.nanoTime();
+            history.compact(0, 0);
+            System.out.printf(Locale.ROOT, "Compacted in %.2f s (%s)%n", (System.nanoTime() - start) / 1e9, history.stats());
+            benchQueries(history, barcodes, brands, "after compaction");
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    private static void benchQueries(ScanHistory history, String[] barcodes, String[] brands, String label) {
+        Random random = new Random(2);
+        long[] latest = new long[2_000];
+        for (int i = 0; i < latest.length; i++) {
+            long start = System.nanoTime();
+            if (history.latest(barcodes[random.nextInt(barcodes.length)]) == null) throw new IllegalStateException("missing scan");
+            latest[i] = System.nanoTime() - start;
+        }
+        long[] brand = new long[200];
+        int found = 0;
+        for (int i = 0; i < brand.length; i++) {
+            long start = System.nanoTime();
+            found += history.byManufacturer(brands[random.nextInt(brands.length)], 1_000).size();
+            brand[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latest);
+        Arrays.sort(brand);
+        System.out.printf(Locale.ROOT, "  %s: latest(barcode) p50 %.3f ms p99 %.3f ms; brand (limit 1000, avg %d hits) p50 %.2f ms p99 %.2f ms%n",
+                label, latest[latest.length / 2] / 1e6, latest[latest.length * 99 / 100] / 1e6, found / brand.length,
+                brand[brand.length / 2] / 1e6, brand[brand.length * 99 / 100] / 1e6);
+    }
+}
@@ -0,0 +1,426 @@
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide scan pipeline metrics.
+ *
+ * - A latency histogram per stage (image read, luminance, ROI, binarize, decode, each lookup).
+ * - Decode outcomes by BarcodeFormat, lookup cache hits, upstream errors and circuit state.
+ *
+ * Recording is a System.nanoTime() pair plus a few atomic adds. Exported as:
+ * - JMX MXBean "BarcodeScanner:type=ScanMetrics" (always)
+ * - Prometheus text on http://localhost:PORT/metrics with -Dmetrics.port=9404
+ * - Prometheus text file rewritten every 15 s and at exit with -Dmetrics.file=scan-metrics.prom
+ *
+ * -Dscanner.debug=true also prints a per-scan timing breakdown in the result area.
+ */
+public final class ScanMetrics {
+
+    public static final boolean DEBUG = Boolean.getBoolean("scanner.debug");
+
+    public enum Stage {
+        IMAGE_READ("image_read", "read"),
+        LUMINANCE("luminance", "luminance"),
+        ROI("roi", "roi"),
+        BINARIZE("binarize", "binarize"),
+        DECODE("decode", "decode"),
+        LOOKUP_OPEN_FOOD_FACTS("lookup_open_food_facts", "OpenFoodFacts"),
+        LOOKUP_BARCODE_LOOKUP("lookup_barcode_lookup", "BarcodeLookup"),
+        LOOKUP_ETHICAL_CONSUMER("lookup_ethical_consumer", "EthicalConsumer");
+
+        final String metricLabel;
+        final String displayName;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Stage(String metricLabel, String displayName) {
+            this.metricLabel = metricLabel;
+            this.displayName = displayName;
+        }
+    }
+
+    private static final BarcodeFormat[] FORMATS = BarcodeFormat.values();
+    private static final AtomicLongArray DECODE_SUCCESS = new AtomicLongArray(FORMATS.length);
+    private static final LongAdder DECODE_FAILURE = new LongAdder();
+
+    // Preformatted label set (source="...",kind="...") → count
+    private static final Map<String, LongAdder> UPSTREAM_ERRORS = new ConcurrentHashMap<>();
+
+    // Timings of the scan running on this thread, if any (see Trace.around)
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    static {
+        registerMBean();
+        startExporters();
+    }
+
+    private ScanMetrics() {
+    }
+
+    // ---------------------------------------------------------
+    // 1. RECORDING
+    // ---------------------------------------------------------
+    public static void record(Stage stage, long nanos) {
+        stage.histogram.record(nanos / 1_000);
+        Trace trace = CURRENT.get();
+        if (trace != null) trace.add(stage, nanos);
+    }
+
+    // One decode pass: binarization is timed inside the TimedBinarizer, the rest is the reader
+    static void recordDecode(long totalNanos, TimedBinarizer binarizer) {
+        long binarize = binarizer.nanos[0];
+        record(Stage.BINARIZE, binarize);
+        record(Stage.DECODE, Math.max(0, totalNanos - binarize));
+    }
+
+    // Trace of the scan running on this thread (to carry it onto helper threads), or null
+    static Trace currentTrace() {
+        return CURRENT.get();
+    }
+
+    // Outcome of one image / frame (not of each internal pass)
+    public static void countDecode(Result result) {
+        if (result != null) {
+            DECODE_SUCCESS.incrementAndGet(result.getBarcodeFormat().ordinal());
+        } else {
+            DECODE_FAILURE.increment();
+        }
+    }
+
+    static void countUpstreamError(String source, String kind) {
+        UPSTREAM_ERRORS.computeIfAbsent("source=\"" + source + "\",kind=\"" + kind + "\"", k -> new LongAdder())
+                .increment();
+    }
+
+    // ---------------------------------------------------------
+    // 2. PER-SCAN TRACE (debug breakdown)
+    // ---------------------------------------------------------
+    public static final class Trace {
+        private final long[] nanos = new long[Stage.values().length];
+
+        synchronized void add(Stage stage, long value) {
+            nanos[stage.ordinal()] += value;
+        }
+
+        // Runs work with this trace attached to the current thread
+        public <T> T around(Supplier<T> work) {
+            Trace previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return work.get();
+            } finally {
+                CURRENT.set(previous);
+            }
+        }
+
+        public synchronized String format() {
+            StringBuilder sb = new StringBuilder("Timings:");
+            for (Stage stage : Stage.values()) {
+                long value = nanos[stage.ordinal()];
+                if (value == 0) continue;
+                sb.append(String.format(Locale.ROOT, " %s %.1f ms,", stage.displayName, value / 1e6));
+            }
+            if (sb.charAt(sb.length() - 1) != ',') return "Timings: none";
+            sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 3. HISTOGRAM
+    // ---------------------------------------------------------
+    // Log-linear buckets over microseconds (HdrHistogram-style): 16 linear sub-buckets per
+    // power of two, so any recorded value is off by at most 1/16 (6.25%). Lock-free.
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            if (micros < 0) micros = 0;
+            counts.incrementAndGet(index(micros));
+            count.increment();
+            sum.add(micros);
+            max.accumulateAndGet(micros, Math::max);
+        }
+
+        static int index(long value) {
+            if (value < SUB_COUNT) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+        }
+
+        // Highest value that falls in bucket i
+        static long upperBound(int i) {
+            if (i < SUB_COUNT) return i;
+            int shift = i / SUB_COUNT - 1;
+            long lower = (long) (SUB_COUNT + i % SUB_COUNT) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sumMicros() {
+            return sum.sum();
+        }
+
+        long valueAtQuantile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+            if (total == 0) return 0;
+
+            long target = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+    }
+
+    // Times HybridBinarizer's work (row and matrix binarization) inside a reader's decode
+    static final class TimedBinarizer extends Binarizer {
+        private final Binarizer delegate;
+        final long[] nanos; // shared with binarizers created for rotated / cropped views
+
+        TimedBinarizer(Binarizer delegate) {
+            this(delegate, new long[1]);
+        }
+
+        private TimedBinarizer(Binarizer delegate, long[] nanos) {
+            super(delegate.getLuminanceSource());
+            this.delegate = delegate;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+            long start = System.nanoTime();
+            try {
+                return delegate.getBlackRow(y, row);
+            } finally {
+                nanos[0] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public BitMatrix getBlackMatrix() throws NotFoundException {
+            long start = System.nanoTime();
+            try {
+                return delegate.getBlackMatrix();
+            } finally {
+                nanos[0] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Binarizer createBinarizer(LuminanceSource source) {
+            return new TimedBinarizer(delegate.createBinarizer(source), nanos);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. PROMETHEUS TEXT
+    // ---------------------------------------------------------
+    public static String prometheusText() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# HELP scan_stage_duration_seconds Latency of each scan pipeline stage\n");
+        sb.append("# TYPE scan_stage_duration_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = stage.histogram;
+            String labels = "stage=\"" + stage.metricLabel + "\"";
+            for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                sb.append(String.format(Locale.ROOT, "scan_stage_duration_seconds{%s,quantile=\"%s\"} %.6f%n",
+                        labels, q, h.valueAtQuantile(q) / 1e6));
+            }
+            sb.append(String.format(Locale.ROOT, "scan_stage_duration_seconds_sum{%s} %.6f%n", labels, h.sumMicros() / 1e6));
+            sb.append("scan_stage_duration_seconds_count{").append(labels).append("} ").append(h.count()).append('\n');
+        }
+
+        sb.append("# HELP scan_decode_total Decoded images/frames by outcome and barcode format\n");
+        sb.append("# TYPE scan_decode_total counter\n");
+        for (BarcodeFormat format : FORMATS) {
+            long n = DECODE_SUCCESS.get(format.ordinal());
+            if (n > 0) sb.append("scan_decode_total{outcome=\"success\",format=\"").append(format).append("\"} ").append(n).append('\n');
+        }
+        sb.append("scan_decode_total{outcome=\"failure\",format=\"none\"} ").append(DECODE_FAILURE.sum()).append('\n');
+
+        LookupCache cache = LookupCache.current();
+        if (cache != null) {
+            sb.append("# HELP lookup_cache_total Lookup cache results by tier\n");
+            sb.append("# TYPE lookup_cache_total counter\n");
+            for (Map.Entry<String, Long> e : cache.counters().entrySet()) {
+                sb.append("lookup_cache_total{result=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+            }
+        }
+
+        sb.append("# HELP scan_decode_strategy_wins_total Decodes won by each DecodeRace strategy\n");
+        sb.append("# TYPE scan_decode_strategy_wins_total counter\n");
+        for (DecodeRace.Strategy strategy : DecodeRace.Strategy.values()) {
+            sb.append("scan_decode_strategy_wins_total{strategy=\"").append(strategy.name().toLowerCase(Locale.ROOT))
+                    .append("\"} ").append(DecodeRace.wins(strategy)).append('\n');
+        }
+
+        sb.append("# HELP upstream_errors_total Failed or refused upstream calls\n");
+        sb.append("# TYPE upstream_errors_total counter\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(UPSTREAM_ERRORS).entrySet()) {
+            sb.append("upstream_errors_total{").append(e.getKey()).append("} ").append(e.getValue().sum()).append('\n');
+        }
+
+        sb.append("# HELP upstream_circuit_open 1 while the source's circuit breaker is not closed\n");
+        sb.append("# TYPE upstream_circuit_open gauge\n");
+        for (LookupCache.Source source : LookupCache.Source.values()) {
+            UpstreamGuard guard = UpstreamGuard.forSource(source);
+            sb.append("upstream_circuit_open{source=\"").append(source.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(guard.state() == UpstreamGuard.State.CLOSED ? 0 : 1).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------
+    // 5. EXPORT (JMX, HTTP, FILE)
+    // ---------------------------------------------------------
+    public interface ScanMetricsMXBean {
+        Map<String, Double> getP50Millis();
+
+        Map<String, Double> getP99Millis();
+
+        Map<String, Long> getStageCounts();
+
+        Map<String, Long> getDecodeCounts();
+
+        String getPrometheusText();
+    }
+
+    private static final class MXBean implements ScanMetricsMXBean {
+        private static Map<String, Double> quantileMillis(double q) {
+            Map<String, Double> out = new TreeMap<>();
+            for (Stage stage : Stage.values()) out.put(stage.metricLabel, stage.histogram.valueAtQuantile(q) / 1e3);
+            return out;
+        }
+
+        @Override
+        public Map<String, Double> getP50Millis() {
+            return quantileMillis(0.5);
+        }
+
+        @Override
+        public Map<String, Double> getP99Millis() {
+            return quantileMillis(0.99);
+        }
+
+        @Override
+        public Map<String, Long> getStageCounts() {
+            Map<String, Long> out = new TreeMap<>();
+            for (Stage stage : Stage.values()) out.put(stage.metricLabel, stage.histogram.count());
+            return out;
+        }
+
+        @Override
+        public Map<String, Long> getDecodeCounts() {
+            Map<String, Long> out = new TreeMap<>();
+            for (BarcodeFormat format : FORMATS) {
+                long n = DECODE_SUCCESS.get(format.ordinal());
+                if (n > 0) out.put(format.name(), n);
+            }
+            out.put("FAILURE", DECODE_FAILURE.sum());
+            return out;
+        }
+
+        @Override
+        public String getPrometheusText() {
+            return prometheusText();
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new MXBean(), new ObjectName("BarcodeScanner:type=ScanMetrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void startExporters() {
+        Integer port = Integer.getInteger("metrics.port");
+        if (port != null) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.setExecutor(Executors.newSingleThreadExecutor(daemon("metrics-http")));
+                server.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        String path = System.getProperty("metrics.file");
+        if (path != null) {
+            File file = new File(path);
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(daemon("metrics-dump"));
+            dumper.scheduleAtFixedRate(() -> dump(file), 15, 15, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(file), "metrics-dump-exit"));
+        }
+    }
+
+    // Write-then-rename, so a scraper never reads a half-written file
+    public static void dump(File file) {
+        try {
+            File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+            Files.write(tmp.toPath(), prometheusText().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Locale;
+
+/**
+ * Everything known about one scanned product, filled in by the lookup stages as each one
+ * finishes: OpenFoodFacts product, manufacturer, EthicalConsumer match, and when each arrived.
+ *
+ * Written from lookup threads and read by the view, so every access is synchronized.
+ * render() produces the text the Swing result area shows, with "looking up..." placeholders
+ * for stages still running.
+ */
+public final class ScanResult {
+
+    public enum Status { PENDING, FOUND, NOT_FOUND, UNAVAILABLE, FAILED }
+
+    public final String barcode;
+    public final String format; // BarcodeFormat name, e.g. EAN_13
+    private final long scanStartNanos;
+
+    private Status productStatus = Status.PENDING;
+    private OpenFoodFactsProduct product;
+    private long productMillis = -1;
+
+    private Status manufacturerStatus = Status.PENDING;
+    private String manufacturer;
+    private long manufacturerMillis = -1;
+
+    private Status ethicalStatus = Status.PENDING;
+    private String ethicalMatch; // "Name -> https://www.ethicalconsumer.org/..."
+    private long ethicalMillis = -1;
+
+    private String stageTimings; // ScanMetrics.Trace breakdown, debug only
+
+    public ScanResult(String barcode, String format, long scanStartNanos) {
+        this.barcode = barcode;
+        this.format = format;
+        this.scanStartNanos = scanStartNanos;
+    }
+
+    // ---------------------------------------------------------
+    // 1. UPDATES (one per lookup stage)
+    // ---------------------------------------------------------
+    public synchronized void product(Status status, OpenFoodFactsProduct product) {
+        this.productStatus = status;
+        this.product = product;
+        this.productMillis = sinceStart();
+    }
+
+    public synchronized void manufacturer(String manufacturer) {
+        this.manufacturerStatus = manufacturer != null ? Status.FOUND : Status.NOT_FOUND;
+        this.manufacturer = manufacturer;
+        this.manufacturerMillis = sinceStart();
+        // Nothing to search for without a manufacturer
+        if (manufacturer == null) this.ethicalStatus = Status.NOT_FOUND;
+    }
+
+    public synchronized void ethical(String match) {
+        this.ethicalStatus = match != null ? Status.FOUND : Status.NOT_FOUND;
+        this.ethicalMatch = match;
+        this.ethicalMillis = sinceStart();
+    }
+
+    public synchronized void stageTimings(String timings) {
+        this.stageTimings = timings;
+    }
+
+    // Snapshot for the scan history once every stage is in
+    public synchronized ScanHistory.Scan toScan(long timestamp, String source) {
+        return new ScanHistory.Scan(timestamp, barcode, format,
+                product != null ? product.productName : null, product != null ? product.brands : null,
+                product != null ? product.nutriscoreGrade : null, manufacturer, ethicalMatch, source);
+    }
+
+    private long sinceStart() {
+        return (System.nanoTime() - scanStartNanos) / 1_000_000;
+    }
+
+    // ---------------------------------------------------------
+    // 2. TEXT VIEW
+    // ---------------------------------------------------------
+    public synchronized void render(StringBuilder sb) {
+        sb.append("Decoded barcode: ").append(barcode).append("\n\n");
+
+        switch (productStatus) {
+            case PENDING: sb.append("OpenFoodFacts: looking up...\n"); break;
+            case FOUND: sb.append(ProductLookups.formatOpenFoodFacts(product)); break;
+            case NOT_FOUND: sb.append("No OpenFoodFacts data.\n"); break;
+            case UNAVAILABLE: sb.append("OpenFoodFacts unavailable right now.\n"); break;
+            default: sb.append("OpenFoodFacts error.\n"); break;
+        }
+        sb.append('\n');
+
+        if (manufacturerStatus == Status.PENDING) {
+            sb.append("Manufacturer: looking up...\n");
+            return;
+        }
+        sb.append("Manufacturer: ").append(manufacturer).append('\n');
+
+        switch (ethicalStatus) {
+            case PENDING: sb.append("\nEthicalConsumer: looking up...\n"); break;
+            case FOUND: sb.append("\nEthicalConsumer Top Match: ").append(ethicalMatch).append('\n'); break;
+            default:
+                sb.append("\nNo EthicalConsumer results found. Consider searching manually for: ")
+                        .append(manufacturer).append(" ethical rating.\n");
+                break;
+        }
+
+        if (ScanMetrics.DEBUG) {
+            sb.append("\nArrived: OpenFoodFacts ").append(millis(productMillis))
+                    .append(", manufacturer ").append(millis(manufacturerMillis))
+                    .append(", EthicalConsumer ").append(millis(ethicalMillis)).append('\n');
+            if (stageTimings != null) sb.append(stageTimings).append('\n');
+        }
+    }
+
+    private static String millis(long value) {
+        return value < 0 ? "-" : String.format(Locale.ROOT, "%d ms", value);
+    }
+}
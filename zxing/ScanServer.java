@@ -0,0 +1,387 @@
+/**
+ * ScanServer.java
+ *
+ * Headless HTTP mode: the same decoder, lookups and caches as the Swing app, behind an API
+ * the Next.js front-end can call instead of re-implementing lookups in TypeScript.
+ *
+ *   POST /scan               body = image bytes (PNG, JPEG, ...); ?lookup=false to only decode
+ *   GET  /product/{barcode}  manufacturer, EthicalConsumer match and OpenFoodFacts info
+ *   GET  /health             "ok"
+ *   GET  /metrics            Prometheus text (see ScanMetrics)
+ *
+ * With "Accept: text/event-stream" results stream back as server-sent events as each lookup
+ * finishes (events: barcode, openfoodfacts, manufacturer, ethical, error, done); otherwise one
+ * JSON object is returned when everything is in.
+ *
+ * Bounded by design: a fixed handler pool, a decode pool of one thread per core with a short
+ * queue, a lookup pool, an upload size cap and a cap on scans in flight. Uploads are held in
+ * memory only while they wait for or go through a decoder, so at most decode threads + queue
+ * of them are admitted at once (about 72 MB per core at the 8 MB cap), however high
+ * --max-scans is. Past those limits requests get 413 / 503 instead of growing memory. No
+ * request thread waits on a lookup: events are written by whichever lookup finishes.
+ *
+ * Usage:
+ * java -cp "..." ScanServer [--port 8080] [--max-scans 512]
+ *
+ * Example:
+ * curl -N -H "Accept: text/event-stream" --data-binary @working/bcNUTELLA.png http://localhost:8080/scan
+ */
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.zxing.Result;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+public class ScanServer {
+
+    private static final int MAX_UPLOAD_BYTES = Integer.getInteger("server.maxUploadBytes", 8 * 1024 * 1024);
+    private static final Pattern BARCODE = Pattern.compile("\\d{6,18}");
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor decodePool;
+    private final ExecutorService lookupPool;
+    private final Semaphore scansInFlight;
+    private final Semaphore uploads; // image bodies in memory: read, queued or being decoded
+
+    public ScanServer(int port, int maxScans) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // Uploads waiting for a decoder are the big allocations: keep that queue short
+        this.decodePool = new ThreadPoolExecutor(cores, cores, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(cores * 8), daemonFactory("scan-decode"));
+        this.lookupPool = new ThreadPoolExecutor(64, 64, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonFactory("scan-lookup"));
+        ((ThreadPoolExecutor) lookupPool).allowCoreThreadTimeOut(true);
+        this.scansInFlight = new Semaphore(maxScans);
+        this.uploads = new Semaphore(cores + cores * 8);
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 256);
+        // Handlers only read the request and hand off, so a small pool serves many clients;
+        // when it is busy the accept loop runs the handler itself, which is the backpressure
+        ThreadPoolExecutor handlers = new ThreadPoolExecutor(32, 32, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(256), daemonFactory("scan-http"), new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(handlers);
+
+        server.createContext("/scan", this::handleScan);
+        server.createContext("/product/", this::handleProduct);
+        server.createContext("/health", exchange -> sendText(exchange, 200, "text/plain", "ok"));
+        server.createContext("/metrics", exchange ->
+                sendText(exchange, 200, "text/plain; version=0.0.4", ScanMetrics.prometheusText()));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        decodePool.shutdownNow();
+        lookupPool.shutdownNow();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // ---------------------------------------------------------
+    // 1. POST /scan
+    // ---------------------------------------------------------
+    private void handleScan(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "POST an image to /scan");
+            return;
+        }
+        if (!scansInFlight.tryAcquire()) {
+            sendError(exchange, 503, "Too many scans in flight");
+            return;
+        }
+        // Checked before the body is read: the queued uploads are what costs memory
+        if (!uploads.tryAcquire()) {
+            scansInFlight.release();
+            sendError(exchange, 503, "Decoder busy, retry shortly");
+            return;
+        }
+
+        Session session = null;
+        boolean uploadHeld = true; // until the decode task owns it
+        try {
+            byte[] image = readBody(exchange);
+            if (image == null) {
+                sendError(exchange, 413, "Image larger than " + MAX_UPLOAD_BYTES + " bytes");
+                scansInFlight.release();
+                return;
+            }
+            boolean lookup = !"lookup=false".equals(exchange.getRequestURI().getQuery());
+            session = new Session(exchange, wantsEvents(exchange), scansInFlight);
+            Session s = session;
+
+            decodePool.execute(() -> {
+                long start = System.nanoTime();
+                List<Result> results;
+                try {
+                    results = BarcodeDecoder.decodeAll(image, BarcodeDecoder.DEFAULT_PROFILE);
+                } finally {
+                    uploads.release();
+                }
+                s.put("decodeMs", (System.nanoTime() - start) / 1e6);
+
+                List<String> barcodes = new ArrayList<>();
+                for (Result result : results) {
+                    if (barcodes.contains(result.getText())) continue;
+                    barcodes.add(result.getText());
+                    ObjectNode event = HttpTransport.JSON.createObjectNode()
+                            .put("barcode", result.getText())
+                            .put("format", result.getBarcodeFormat().name());
+                    s.event("barcode", event);
+                }
+                if (!lookup || barcodes.isEmpty()) {
+                    s.finish();
+                    return;
+                }
+                CompletableFuture<?>[] pipelines = new CompletableFuture<?>[barcodes.size()];
+                for (int i = 0; i < barcodes.size(); i++) pipelines[i] = lookups(s, barcodes.get(i));
+                CompletableFuture.allOf(pipelines).whenComplete((v, error) -> s.finish());
+            });
+            uploadHeld = false;
+        } catch (RejectedExecutionException e) {
+            // Decode queue full: shed instead of buffering more uploads
+            if (session != null) {
+                session.fail(503, "Decoder busy, retry shortly");
+            } else {
+                scansInFlight.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (session == null) scansInFlight.release();
+            throw e;
+        } finally {
+            if (uploadHeld) uploads.release();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 2. GET /product/{barcode}
+    // ---------------------------------------------------------
+    private void handleProduct(HttpExchange exchange) throws IOException {
+        String barcode = exchange.getRequestURI().getPath().substring("/product/".length());
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "GET /product/{barcode}");
+            return;
+        }
+        if (!BARCODE.matcher(barcode).matches()) {
+            sendError(exchange, 400, "Barcode must be 6-18 digits");
+            return;
+        }
+        if (!scansInFlight.tryAcquire()) {
+            sendError(exchange, 503, "Too many scans in flight");
+            return;
+        }
+
+        Session session;
+        try {
+            session = new Session(exchange, wantsEvents(exchange), scansInFlight);
+        } catch (IOException | RuntimeException e) {
+            scansInFlight.release(); // e.g. the client left before the SSE headers went out
+            throw e;
+        }
+        session.event("barcode", HttpTransport.JSON.createObjectNode().put("barcode", barcode));
+        lookups(session, barcode).whenComplete((v, error) -> session.finish());
+    }
+
+    // OpenFoodFacts and BarcodeLookup in parallel; EthicalConsumer chained on the manufacturer
+    private CompletableFuture<Void> lookups(Session session, String barcode) {
+        CompletableFuture<Void> openFoodFacts = CompletableFuture
+                .supplyAsync(() -> ProductLookups.getOpenFoodFactsInfo(barcode), lookupPool)
+                .thenAccept(info -> session.event("openfoodfacts",
+                        HttpTransport.JSON.createObjectNode().put("barcode", barcode).put("info", info)));
+
+        CompletableFuture<Void> ethical = CompletableFuture
+                .supplyAsync(() -> ProductLookups.searchManufacturerByBarcode(barcode), lookupPool)
+                .thenCompose(manufacturer -> {
+                    session.event("manufacturer",
+                            HttpTransport.JSON.createObjectNode().put("barcode", barcode).put("manufacturer", manufacturer));
+                    if (manufacturer == null) return CompletableFuture.completedFuture(null);
+                    return CompletableFuture
+                            .supplyAsync(() -> ProductLookups.searchEthicalConsumerTopHit(manufacturer), lookupPool)
+                            .thenAccept(match -> session.event("ethical",
+                                    HttpTransport.JSON.createObjectNode().put("barcode", barcode).put("match", match)));
+                });
+
+        return CompletableFuture.allOf(openFoodFacts, ethical).exceptionally(error -> {
+            session.event("error", HttpTransport.JSON.createObjectNode()
+                    .put("barcode", barcode).put("message", String.valueOf(error.getMessage())));
+            return null;
+        });
+    }
+
+    // ---------------------------------------------------------
+    // 3. RESPONSE SESSION (SSE or one JSON body)
+    // ---------------------------------------------------------
+    // Written from decode and lookup threads; every write holds the session lock
+    private static final class Session {
+        private final HttpExchange exchange;
+        private final boolean events;
+        private final Semaphore permits;
+        private final long start = System.nanoTime();
+        private final ObjectNode body = HttpTransport.JSON.createObjectNode();
+        private final AtomicInteger barcodes = new AtomicInteger();
+        private OutputStream out;
+        private boolean closed;
+
+        Session(HttpExchange exchange, boolean events, Semaphore permits) throws IOException {
+            this.exchange = exchange;
+            this.events = events;
+            this.permits = permits;
+            if (events) {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0); // chunked
+                out = exchange.getResponseBody();
+            }
+        }
+
+        synchronized void put(String field, double value) {
+            if (!events) body.put(field, value);
+        }
+
+        synchronized void event(String name, ObjectNode data) {
+            if (closed) return;
+            if (name.equals("barcode")) barcodes.incrementAndGet();
+            if (events) {
+                try {
+                    out.write(("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } catch (IOException e) {
+                    close(); // client went away; remaining lookups still fill the cache
+                }
+            } else {
+                ArrayNode list = body.withArray(name);
+                list.add(data);
+            }
+        }
+
+        synchronized void finish() {
+            if (closed) return;
+            ObjectNode done = HttpTransport.JSON.createObjectNode()
+                    .put("barcodes", barcodes.get())
+                    .put("ms", (System.nanoTime() - start) / 1e6);
+            if (events) {
+                event("done", done);
+            } else {
+                body.setAll(done);
+                try {
+                    sendText(exchange, 200, "application/json", body.toString());
+                } catch (IOException e) {
+                    // client went away
+                }
+            }
+            close();
+        }
+
+        synchronized void fail(int status, String message) {
+            if (closed) return;
+            try {
+                if (events) {
+                    event("error", HttpTransport.JSON.createObjectNode().put("message", message));
+                } else {
+                    sendError(exchange, status, message);
+                }
+            } catch (IOException e) {
+                // client went away
+            }
+            close();
+        }
+
+        private void close() {
+            if (closed) return;
+            closed = true;
+            exchange.close();
+            permits.release();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // 4. HTTP HELPERS
+    // ---------------------------------------------------------
+    private static boolean wantsEvents(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains("text/event-stream");
+    }
+
+    // Request body, or null if it exceeds MAX_UPLOAD_BYTES
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length) > MAX_UPLOAD_BYTES) return null;
+
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_UPLOAD_BYTES + 1);
+            return body.length > MAX_UPLOAD_BYTES ? null : body;
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendText(exchange, status, "application/json",
+                HttpTransport.JSON.createObjectNode().put("error", message).toString());
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (status == 503) exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // ---------------------------------------------------------
+    // MAIN
+    // ---------------------------------------------------------
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int port = 8080;
+        int maxScans = 512;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--max-scans") && i + 1 < args.length) {
+                maxScans = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: ScanServer [--port 8080] [--max-scans 512]");
+                System.exit(1);
+            }
+        }
+
+        ScanServer scanServer = new ScanServer(port, maxScans);
+        scanServer.start();
+        System.err.println("ScanServer listening on http://localhost:" + scanServer.port());
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * StartupWarmup.java
+ *
+ * Takes first-scan costs off the critical path. While the user is still picking a file, a
+ * low-priority background thread:
+ * - decodes an embedded sample (an EAN-13 drawn with EAN13Writer, PNG-encoded in memory) through
+ *   the same read → gray → decode path a real scan takes, so ImageIO, ZXing and the JIT are warm
+ * - initialises ScanMetrics (JMX registration), the lookup cache (disk index), brand index and
+ *   GS1 prefix table
+ * - primes Jackson and Jsoup on small sample documents, and Java2D through a thumbnail
+ *
+ * The HTTP client itself stays lazy (see HttpTransport): nothing here touches the network.
+ * Warm-up decodes count in ScanMetrics like any other decode.
+ *
+ * Run directly, it is the AppCDS training workload (see appcds.sh): warm-up plus a decode of
+ * each image given, then exit.
+ *
+ * Usage:
+ * java -cp "..." StartupWarmup [image...]
+ */
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.EAN13Writer;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import javax.imageio.ImageIO;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public final class StartupWarmup {
+
+    // Enough passes for the hot decode loops to get compiled
+    private static final int DECODE_PASSES = Integer.getInteger("warmup.decodes", 12);
+
+    private static final String SAMPLE_BARCODE = "3017620422003";
+    private static final String SAMPLE_PRODUCT =
+            "{\"status\":1,\"product\":{\"product_name\":\"Sample\",\"brands\":\"Sample\",\"nutriscore_grade\":\"e\"}}";
+    private static final String SAMPLE_SEARCH =
+            "<html><body><input name=\"keywords\" value=\"sample\">"
+                    + "<div class=\"search-result__title\"><a href=\"/sample\">Sample</a></div></body></html>";
+
+    private StartupWarmup() {
+    }
+
+    // Off the EDT and below normal priority, so it never competes with the UI
+    public static void startInBackground() {
+        if (!Boolean.parseBoolean(System.getProperty("warmup", "true"))) return;
+        Thread t = new Thread(StartupWarmup::run, "startup-warmup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    public static void run() {
+        long start = System.nanoTime();
+        try {
+            byte[] png = samplePng();
+            for (int i = 0; i < DECODE_PASSES; i++) BarcodeDecoder.decodeAll(png, BarcodeDecoder.DEFAULT_PROFILE);
+            ThumbnailCache.scale(ImageIO.read(new ByteArrayInputStream(png)), 500, 400);
+
+            OpenFoodFactsProduct product = OpenFoodFactsProduct.parse(
+                    new ByteArrayInputStream(SAMPLE_PRODUCT.getBytes(StandardCharsets.UTF_8)));
+            OpenFoodFactsProduct.fromCacheValue(product.toCacheValue());
+            HttpTransport.JSON.readTree(SAMPLE_PRODUCT);
+            Document doc = Jsoup.parse(SAMPLE_SEARCH, "https://www.ethicalconsumer.org/");
+            doc.selectFirst(".search-result__title a");
+
+            LookupCache.shared();
+            BrandIndex.shared();
+            Gs1Prefixes.shared();
+            ScanHistory.shared();
+        } catch (Exception e) {
+            e.printStackTrace(); // a failed warm-up only means a slower first scan
+        }
+        if (ScanMetrics.DEBUG) {
+            System.err.printf("Warm-up done in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static byte[] samplePng() throws IOException {
+        BitMatrix matrix = new EAN13Writer().encode(SAMPLE_BARCODE, BarcodeFormat.EAN_13, 400, 200);
+        BufferedImage image = MatrixToImageWriter.toBufferedImage(matrix);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // ---------------------------------------------------------
+    // MAIN (AppCDS training run)
+    // ---------------------------------------------------------
+    public static void main(String[] args) {
+        run();
+        for (String path : args) {
+            BarcodeDecoder.decodeAll(new File(path), BarcodeDecoder.DEFAULT_PROFILE,
+                    decoded -> ThumbnailCache.shared().put(new File(path), decoded));
+        }
+        // Load the Swing classes the window uses (components work headless; frames don't)
+        new JScrollPane(new JTextArea());
+        new JLabel("Choose an image to scan");
+        new JFileChooser();
+    }
+}
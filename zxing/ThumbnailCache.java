@@ -0,0 +1,92 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Preview images for the Swing app, kept in a small LRU keyed by file path and mtime, so
+ * re-opening a recently scanned image shows its preview instantly. An edited file gets a new
+ * mtime and therefore a fresh thumbnail.
+ *
+ * Thumbnails are made from the image the decoder already read (see
+ * BarcodeDecoder.decodeAll(File, Profile, Consumer)), off the EDT, by progressive bilinear
+ * halving: each step averages neighbouring pixels well enough, and it is far cheaper than
+ * Image.getScaledInstance(SCALE_SMOOTH)'s area averaging.
+ */
+public final class ThumbnailCache {
+
+    private static final ThumbnailCache SHARED = new ThumbnailCache(500, 400, 16);
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private final Map<String, BufferedImage> entries; // guarded by itself
+
+    public static ThumbnailCache shared() {
+        return SHARED;
+    }
+
+    public ThumbnailCache(int maxWidth, int maxHeight, int capacity) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Cached thumbnail of the file as it is now, or null
+    public BufferedImage get(File file) {
+        String key = key(file);
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    // Scales image (which may be reused by its owner afterwards) into a new thumbnail and caches it
+    public BufferedImage put(File file, BufferedImage image) {
+        BufferedImage thumbnail = scale(image, maxWidth, maxHeight);
+        String key = key(file);
+        synchronized (entries) {
+            entries.put(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath() + '\0' + file.lastModified();
+    }
+
+    // ---------------------------------------------------------
+    // PROGRESSIVE BILINEAR DOWNSCALE
+    // ---------------------------------------------------------
+    // Fits inside maxWidth x maxHeight keeping the aspect ratio. Always returns a new image.
+    static BufferedImage scale(BufferedImage source, int maxWidth, int maxHeight) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double ratio = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        // Halve until one more halving would undershoot, then a final step to the exact size.
+        // A single bilinear step from far above would skip most source pixels (aliasing).
+        BufferedImage current = source;
+        int w = width;
+        int h = height;
+        do {
+            w = Math.max(targetWidth, w / 2);
+            h = Math.max(targetHeight, h / 2);
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        } while (w != targetWidth || h != targetHeight);
+        return current;
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Per-upstream resilience around HTTP calls (one guard per LookupCache.Source).
+ *
+ * - Token bucket sized to the API's quota; callers queue for a token up to MAX_QUEUE_WAIT,
+ *   then are shed instead of piling up behind a slow source.
+ * - Bounded retries (timeouts, connection errors, 429, 5xx) with full-jitter exponential backoff.
+ * - Hedging: if an attempt is still running after the hedge delay, a second request is sent
+ *   (only when a token is free right now) and the first success wins.
+ * - Circuit breaker: after FAILURE_THRESHOLD consecutive failures the source fails fast for
+ *   OPEN_MILLIS, then one probe request decides whether it closes again. While it is open,
+ *   LookupCache serves stale entries and the other sources still answer (partial results).
+ *
+ * Quotas can be overridden with -Dupstream.<source>.perMinute=N, e.g. -Dupstream.barcode_lookup.perMinute=30
+ */
+public final class UpstreamGuard {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_BASE_MILLIS = 250;
+    private static final long BACKOFF_CAP_MILLIS = 4_000;
+    private static final long MAX_QUEUE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 30_000;
+
+    // Fail-fast answer: circuit open or rate-limit queue full
+    public static final class UnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final Map<LookupCache.Source, UpstreamGuard> GUARDS = new EnumMap<>(LookupCache.Source.class);
+
+    static {
+        // OpenFoodFacts asks for at most 100 product reads per minute
+        GUARDS.put(LookupCache.Source.OPEN_FOOD_FACTS, new UpstreamGuard("OpenFoodFacts",
+                perMinute(LookupCache.Source.OPEN_FOOD_FACTS, 100), 10, 800));
+        // BarcodeLookup's smallest paid plan is 50 calls per minute
+        GUARDS.put(LookupCache.Source.BARCODE_LOOKUP, new UpstreamGuard("BarcodeLookup",
+                perMinute(LookupCache.Source.BARCODE_LOOKUP, 50), 5, 1_500));
+        // No published quota: stay polite with a scraped site
+        GUARDS.put(LookupCache.Source.ETHICAL_CONSUMER, new UpstreamGuard("EthicalConsumer",
+                perMinute(LookupCache.Source.ETHICAL_CONSUMER, 30), 2, 2_000));
+    }
+
+    // OpenFoodFacts search queries (multi-code batches) have their own, much lower quota
+    static final UpstreamGuard OPEN_FOOD_FACTS_SEARCH = new UpstreamGuard("OpenFoodFacts search",
+            Integer.getInteger("upstream.open_food_facts_search.perMinute", 10) / 60.0, 2, 2_000);
+
+    public static UpstreamGuard forSource(LookupCache.Source source) {
+        return GUARDS.get(source);
+    }
+
+    private static double perMinute(LookupCache.Source source, int fallback) {
+        return Integer.getInteger("upstream." + source.name().toLowerCase(Locale.ROOT) + ".perMinute", fallback) / 60.0;
+    }
+
+    private final String name;
+    private final double tokensPerNano;
+    private final double burst;
+    private final long hedgeDelayMillis;
+
+    // Token bucket (guarded by this)
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    // Circuit breaker (guarded by this)
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    UpstreamGuard(String name, double perSecond, int burst, long hedgeDelayMillis) {
+        this.name = name;
+        this.tokensPerNano = perSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+    }
+
+    // ---------------------------------------------------------
+    // 1. EXECUTE (breaker → rate limit → hedged attempt → retry)
+    // ---------------------------------------------------------
+    // attempt must start a fresh request each time it is called (retries and hedges rely on it)
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        run(attempt, 1, result);
+        return result;
+    }
+
+    private <T> void run(Supplier<CompletableFuture<T>> attempt, int attemptNo, CompletableFuture<T> result) {
+        if (!allowRequest()) {
+            ScanMetrics.countUpstreamError(name, "circuit_open");
+            result.completeExceptionally(new UnavailableException(name + " circuit open"));
+            return;
+        }
+        long waitNanos = reserveToken();
+        if (waitNanos < 0) {
+            releaseProbe();
+            ScanMetrics.countUpstreamError(name, "shed");
+            result.completeExceptionally(new UnavailableException(name + " rate limit queue full"));
+            return;
+        }
+
+        Executor start = waitNanos > 0
+                ? CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS)
+                : Runnable::run;
+        start.execute(() -> hedged(attempt).whenComplete((value, error) -> {
+            if (error == null) {
+                onSuccess();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = HttpTransport.unwrap(error);
+            if (!isUpstreamFault(cause)) {
+                onSuccess(); // e.g. 404: the source is healthy, the answer is just "no"
+                result.completeExceptionally(cause);
+                return;
+            }
+            onFailure();
+            ScanMetrics.countUpstreamError(name, "fault");
+            if (attemptNo >= MAX_ATTEMPTS) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            long backoff = ThreadLocalRandom.current().nextLong(
+                    Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << (attemptNo - 1)) + 1);
+            CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS)
+                    .execute(() -> run(attempt, attemptNo + 1, result));
+        }));
+    }
+
+    // First attempt, plus a second one if the first is slower than the hedge delay
+    private <T> CompletableFuture<T> hedged(Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        int[] pending = {1};
+        Throwable[] firstError = {null};
+
+        BiConsumer<T, Throwable> settle = (value, error) -> {
+            synchronized (pending) {
+                if (error == null) {
+                    winner.complete(value);
+                    return;
+                }
+                if (firstError[0] == null) firstError[0] = error;
+                if (--pending[0] == 0) winner.completeExceptionally(firstError[0]);
+            }
+        };
+        start(attempt).whenComplete(settle);
+
+        CompletableFuture.delayedExecutor(hedgeDelayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (pending) {
+                if (winner.isDone() || pending[0] == 0 || !tryAcquireToken()) return;
+                pending[0]++;
+            }
+            start(attempt).whenComplete(settle);
+        });
+        return winner;
+    }
+
+    // A synchronous throw becomes a failed attempt: inside a delayed-executor task it would
+    // otherwise be swallowed, leaving the result (and a half-open probe) never settled
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> attempt) {
+        try {
+            return attempt.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    static boolean isUpstreamFault(Throwable error) {
+        if (error instanceof UnavailableException) return false;
+        if (error instanceof HttpTransport.HttpStatusException) {
+            int status = ((HttpTransport.HttpStatusException) error).status;
+            return status == 429 || status >= 500;
+        }
+        return error instanceof IOException; // timeouts, resets, DNS
+    }
+
+    // ---------------------------------------------------------
+    // 2. TOKEN BUCKET
+    // ---------------------------------------------------------
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+
+    // Takes a token (possibly borrowing from the future). Returns how long to wait before
+    // using it, or -1 if that wait would exceed MAX_QUEUE_WAIT.
+    private synchronized long reserveToken() {
+        refill(System.nanoTime());
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        long wait = (long) ((1 - tokens) / tokensPerNano);
+        if (wait > MAX_QUEUE_WAIT_NANOS) return -1;
+        tokens -= 1;
+        return wait;
+    }
+
+    private synchronized boolean tryAcquireToken() {
+        refill(System.nanoTime());
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    // ---------------------------------------------------------
+    // 3. CIRCUIT BREAKER
+    // ---------------------------------------------------------
+    private synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) return true;
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true; // exactly one probe decides
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        state = State.CLOSED;
+    }
+
+    private synchronized void onFailure() {
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || ++consecutiveFailures >= FAILURE_THRESHOLD) {
+            if (state != State.OPEN) System.err.println(name + ": circuit open for " + OPEN_MILLIS / 1000 + "s");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Startup-optimised launch: an AppCDS archive of the classes a scan loads, recorded from a
+# training run (StartupWarmup over working/*.png), so a cold start maps them pre-parsed
+# instead of loading and verifying them from the jars.
+#
+#   zxing/appcds.sh train           build, then record zxing/target/app-cds.jsa
+#   zxing/appcds.sh [args...]       launch BarcodeEthicalScannerApp with the archive
+#
+# Retrain after changing code or dependencies; a stale archive is ignored with a warning.
+set -e
+cd "$(dirname "$0")"
+
+archive=target/app-cds.jsa
+classpath() {
+    # Jars only (AppCDS does not archive classes from directories), in a stable order:
+    # the launch classpath must match the training one
+    printf '%s' target/barcode-scanner-1.0-SNAPSHOT.jar
+    for jar in $(ls target/lib/*.jar | sort); do printf ':%s' "$jar"; done
+}
+
+if [ "$1" = "train" ]; then
+    mvn -B -q -f ../pom.xml -pl zxing -am -DskipTests package
+    mvn -B -q dependency:copy-dependencies -DoutputDirectory=target/lib -DincludeScope=runtime
+    java -XX:ArchiveClassesAtExit="$archive" -Djava.awt.headless=true -cp "$(classpath)" \
+        StartupWarmup working/*.png
+    echo "Wrote zxing/$archive"
+    exit 0
+fi
+
+if [ ! -f "$archive" ]; then
+    echo "No $archive yet: run zxing/appcds.sh train first" >&2
+    exit 1
+fi
+exec java -XX:SharedArchiveFile="$archive" -cp "$(classpath)" BarcodeEthicalScannerApp "$@"
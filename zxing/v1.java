@@ -2,17 +2,8 @@
 // A simple Java Swing app to scan barcodes from an image and fetch product info from OpenFoodFacts
 
 // ----- Imports -----
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.NotFoundException;
+
 import com.google.zxing.Result;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -21,14 +12,9 @@ import java.awt.Font;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.time.Duration;
 
-import java.util.EnumMap;
-import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -128,62 +114,32 @@ public class BarcodeFoodScannerApp {
 
     // Decode barcode from image using ZXing
     private String decodeBarcode(BufferedImage image) {
-        try {
-            BufferedImageLuminanceSource source = new BufferedImageLuminanceSource(image);
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-
-            // Try all barcode formats
-            EnumMap<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
-            hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.allOf(BarcodeFormat.class));
-            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
-
-            Result result = new MultiFormatReader().decode(bitmap, hints);
-            return result.getText();
-
-        } catch (NotFoundException e) {
-            return null; // no barcode found
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        // Shared engine: restricted formats first, TRY_HARDER only if that finds nothing
+        Result result = BarcodeDecoder.decode(image);
+        return result != null ? result.getText() : null;
     }
 
     // Lookup product info from OpenFoodFacts API using barcode
     private Map<String, String> lookupOpenFoodFacts(String barcode) {
         Map<String, String> info = new LinkedHashMap<>();
-        String apiUrl = "https://world.openfoodfacts.org/api/v0/product/" + barcode + ".json";
+        String apiUrl = OpenFoodFactsProduct.url(barcode);
 
         try {
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(5000);
-            conn.setReadTimeout(5000);
-
-            int status = conn.getResponseCode();
-            if (status != 200) {
-                info.put("Error", "HTTP status " + status);
+            // Shared pooled client; only the displayed fields are requested and stream-parsed
+            OpenFoodFactsProduct product;
+            try {
+                product = HttpTransport.get(apiUrl, Duration.ofSeconds(5), OpenFoodFactsProduct.PARSER);
+            } catch (HttpTransport.HttpStatusException e) {
+                info.put("Error", "HTTP status " + e.status);
                 return info;
             }
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while((line = in.readLine()) != null) response.append(line);
-            in.close();
-            conn.disconnect();
-
-            // Parse JSON
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(response.toString());
-            JsonNode product = root.path("product");
-
-            if (product.isMissingNode() || root.path("status").asInt() != 1) return info;
+            if (!product.found || product.status != 1) return info;
 
-            info.put("Product Name", product.path("product_name").asText("N/A"));
-            info.put("Brands", product.path("brands").asText("N/A"));
-            info.put("Ingredients", product.path("ingredients_text").asText("N/A"));
-            info.put("Nutriscore", product.path("nutriscore_grade").asText("N/A"));
+            info.put("Product Name", OpenFoodFactsProduct.orNA(product.productName));
+            info.put("Brands", OpenFoodFactsProduct.orNA(product.brands));
+            info.put("Ingredients", OpenFoodFactsProduct.orNA(product.ingredientsText));
+            info.put("Nutriscore", OpenFoodFactsProduct.orNA(product.nutriscoreGrade));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -2,13 +2,9 @@
 // A simple Java Swing app to scan barcodes from an image and search on Google
 
 import com.google.zxing.*;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.EnumMap;
-import java.util.EnumSet;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -85,22 +81,8 @@ public class BarcodeGoogleScannerApp {
 
     // Decode barcode from a BufferedImage using ZXing
     private String decodeBarcode(BufferedImage image) {
-        try {
-            BufferedImageLuminanceSource source = new BufferedImageLuminanceSource(image);
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-
-            EnumMap<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
-            hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.allOf(BarcodeFormat.class));
-            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
-
-            Result result = new MultiFormatReader().decode(bitmap, hints);
-            return result.getText();
-
-        } catch (NotFoundException e) {
-            return null; // no barcode found
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        // Shared engine, every format: this app scans anything, not just product labels
+        Result result = BarcodeDecoder.decode(image, BarcodeDecoder.Profile.EVERYTHING);
+        return result != null ? result.getText() : null;
     }
 }
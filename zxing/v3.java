@@ -18,16 +18,7 @@
  * java -cp ".:core-3.5.2.jar:javase-3.5.2.jar:jackson-databind-2.15.2.jar:jackson-core-2.15.2.jar:jackson-annotations-2.15.2.jar" BarcodeEthicalScannerApp
  */
 
- import com.fasterxml.jackson.databind.JsonNode;
- import com.fasterxml.jackson.databind.ObjectMapper;
- import com.google.zxing.BarcodeFormat;
- import com.google.zxing.BinaryBitmap;
- import com.google.zxing.DecodeHintType;
- import com.google.zxing.MultiFormatReader;
- import com.google.zxing.NotFoundException;
  import com.google.zxing.Result;
- import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
- import com.google.zxing.common.HybridBinarizer;
  
  import javax.imageio.ImageIO;
  import javax.swing.*;
@@ -36,10 +27,7 @@
  import java.awt.event.ActionEvent;
  import java.awt.image.BufferedImage;
  import java.io.*;
- import java.net.HttpURLConnection;
- import java.net.URL;
- import java.util.EnumMap;
- import java.util.EnumSet;
+ import java.time.Duration;
  import java.util.LinkedHashMap;
  import java.util.Map;
  
@@ -136,58 +124,38 @@
  
      // Decode barcode using ZXing
      private String decodeBarcode(BufferedImage image) {
-         try {
-             BufferedImageLuminanceSource source = new BufferedImageLuminanceSource(image);
-             BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-             EnumMap<DecodeHintType,Object> hints = new EnumMap<>(DecodeHintType.class);
-             hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.allOf(BarcodeFormat.class));
-             hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
- 
-             Result result = new MultiFormatReader().decode(bitmap, hints);
-             return result.getText();
-         } catch (NotFoundException e) {
-             return null;
-         } catch (Exception e) {
-             e.printStackTrace();
-             return null;
-         }
+         // Shared engine: restricted formats first, TRY_HARDER only if that finds nothing
+         Result result = BarcodeDecoder.decode(image);
+         return result != null ? result.getText() : null;
      }
  
      // Lookup product info from OpenFoodFacts or Barcode Lookup API
      private Map<String, String> lookupProductInfo(String barcode) {
          Map<String, String> info = new LinkedHashMap<>();
          try {
+             // Local OpenFoodFacts index first, network only on a miss
+             OfflineProductIndex offline = OfflineProductIndex.shared();
+             OpenFoodFactsProduct product = offline != null ? offline.lookup(barcode) : null;
+ 
              // Example: OpenFoodFacts API
-             String urlStr = "https://world.openfoodfacts.org/api/v0/product/" + barcode + ".json";
-             URL url = new URL(urlStr);
-             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-             conn.setRequestMethod("GET");
-             conn.setConnectTimeout(5000);
-             conn.setReadTimeout(5000);
- 
-             if (conn.getResponseCode() != 200) {
-                 info.put("Error", "HTTP " + conn.getResponseCode());
-                 return info;
+             String urlStr = OpenFoodFactsProduct.url(barcode);
+             // Shared pooled client; only the displayed fields are requested and stream-parsed
+             if (product == null) {
+                 try {
+                     product = HttpTransport.get(urlStr, Duration.ofSeconds(5), OpenFoodFactsProduct.PARSER);
+                 } catch (HttpTransport.HttpStatusException e) {
+                     info.put("Error", "HTTP " + e.status);
+                     return info;
+                 }
              }
  
-             BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-             StringBuilder sb = new StringBuilder();
-             String line;
-             while ((line = reader.readLine()) != null) sb.append(line);
-             reader.close();
-             conn.disconnect();
- 
-             ObjectMapper mapper = new ObjectMapper();
-             JsonNode root = mapper.readTree(sb.toString());
- 
-             if (root.path("status").asInt() != 1) return info; // product not found
+             if (product.status != 1) return info; // product not found
  
-             JsonNode product = root.path("product");
-             info.put("Product Name", product.path("product_name").asText("N/A"));
-             info.put("Brand", product.path("brands").asText("N/A"));
-             info.put("Category", product.path("categories").asText("N/A"));
-             info.put("Labels", product.path("labels").asText("N/A"));
-             info.put("Ingredients Info", product.path("ingredients_text").asText("N/A"));
+             info.put("Product Name", OpenFoodFactsProduct.orNA(product.productName));
+             info.put("Brand", OpenFoodFactsProduct.orNA(product.brands));
+             info.put("Category", OpenFoodFactsProduct.orNA(product.categories));
+             info.put("Labels", OpenFoodFactsProduct.orNA(product.labels));
+             info.put("Ingredients Info", OpenFoodFactsProduct.orNA(product.ingredientsText));
  
          } catch (Exception e) {
              e.printStackTrace();